@@ -0,0 +1,73 @@
+/**
+ * Copyright 2020 Jitendra Kotamraju.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcifs.dcerpc.msrpc.eventing;
+
+import jcifs.dcerpc.ndr.NdrBuffer;
+
+import java.io.IOException;
+
+/*
+ * Test events for the benchmarks
+ *
+ * @author Jitendra Kotamraju
+ */
+class BenchmarkEvents {
+
+    static String binXmlResource(String eventType) {
+        switch (eventType) {
+            case "4624":
+                return "event-28492.bin";
+            case "4634":
+                return "event-28493.bin";
+            default:
+                throw new IllegalArgumentException("No test event for " + eventType);
+        }
+    }
+
+    // 2.2.17 Result Set records of the event, one after another
+    static byte[] records(String eventType, int batchSize, int[] indices, int[] sizes) throws IOException {
+        byte[] record = EventRecordTest.record(binXmlResource(eventType), 1);
+        byte[] buf = new byte[record.length * batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            indices[i] = i * record.length;
+            sizes[i] = record.length;
+            System.arraycopy(record, 0, buf, indices[i], record.length);
+        }
+        return buf;
+    }
+
+    // Stub of EvtRpcRemoteSubscriptionNext response with the records
+    static byte[] nextResponse(byte[] records, int[] indices, int[] sizes) {
+        NdrBuffer buf = new NdrBuffer(new byte[records.length + 8 * indices.length + 64], 0);
+        buf.enc_ndr_long(indices.length);
+        encodeLongs(buf, indices);
+        encodeLongs(buf, sizes);
+        buf.enc_ndr_long(records.length);
+        buf.enc_ndr_long(1);
+        buf.enc_ndr_long(records.length);
+        buf.writeOctetArray(records, 0, records.length);
+        buf.enc_ndr_long(0);
+        return buf.getBuffer();
+    }
+
+    private static void encodeLongs(NdrBuffer buf, int[] values) {
+        buf.enc_ndr_long(1);                // pointer
+        buf.enc_ndr_long(values.length);    // MaxCount
+        for (int value : values) {
+            buf.enc_ndr_long(value);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright 2020 Jitendra Kotamraju.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcifs.dcerpc.msrpc.eventing;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Single event decoding: BinXml -> xml, xml -> Event and BinXml -> Event
+ *
+ *     mvn -Pjmh test-compile exec:exec -Djmh.args="BinXmlBenchmark -prof gc"
+ *
+ * @author Jitendra Kotamraju
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BinXmlBenchmark {
+
+    @Param({"4624", "4634"})
+    public String eventType;
+
+    private byte[] binXml;
+    private String xml;
+    private BinXmlTemplateCache templateCache;
+
+    @Setup
+    public void setup() throws IOException {
+        binXml = EventRecordTest.resource(BenchmarkEvents.binXmlResource(eventType));
+        xml = new BinXmlParser(binXml, 0, binXml.length).xml();
+        templateCache = new BinXmlTemplateCache();
+    }
+
+    @Benchmark
+    public String binXmlToXml() {
+        return new BinXmlParser(binXml, 0, binXml.length).xml();
+    }
+
+    @Benchmark
+    public String binXmlToXmlCached() {
+        return new BinXmlParser(binXml, 0, binXml.length, templateCache).xml();
+    }
+
+    @Benchmark
+    public Event xmlToEvent() throws XMLStreamException {
+        return Event.event(new StringReader(xml));
+    }
+
+    @Benchmark
+    public Event binXmlToEvent() {
+        return new BinXmlParser(binXml, 0, binXml.length).event();
+    }
+
+    @Benchmark
+    public Event binXmlToEventCached() {
+        return new BinXmlParser(binXml, 0, binXml.length, templateCache).event();
+    }
+
+    @Benchmark
+    public EventSystem system() {
+        EventSystem system = BinXmlParser.system(binXml, 0, binXml.length, templateCache);
+        system.eventId();
+        return system;
+    }
+}
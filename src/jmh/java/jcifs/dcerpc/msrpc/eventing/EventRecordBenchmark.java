@@ -0,0 +1,117 @@
+/**
+ * Copyright 2020 Jitendra Kotamraju.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcifs.dcerpc.msrpc.eventing;
+
+import jcifs.dcerpc.msrpc.eventing.even6.EvtRpcRemoteSubscriptionNext;
+import jcifs.dcerpc.ndr.NdrBuffer;
+import jcifs.dcerpc.ndr.NdrException;
+import jcifs.dcerpc.rpc.policy_handle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * A batch of records as pulled by EventLogWatcher: EvtRpcRemoteSubscriptionNext
+ * response decoding, EventRecord construction and event decoding. Scores are
+ * batches per millisecond.
+ *
+ *     mvn -Pjmh test-compile exec:exec -Djmh.args="EventRecordBenchmark -p batchSize=5,256 -prof gc"
+ *
+ * @author Jitendra Kotamraju
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EventRecordBenchmark {
+
+    @Param({"4624", "4634"})
+    public String eventType;
+
+    @Param({"1", "5", "64", "256"})
+    public int batchSize;
+
+    private byte[] records;
+    private int[] indices;
+    private int[] sizes;
+    private byte[] response;
+    private BinXmlTemplateCache templateCache;
+    private EventProjection projection;
+
+    @Setup
+    public void setup() throws IOException {
+        indices = new int[batchSize];
+        sizes = new int[batchSize];
+        records = BenchmarkEvents.records(eventType, batchSize, indices, sizes);
+        response = BenchmarkEvents.nextResponse(records, indices, sizes);
+        templateCache = new BinXmlTemplateCache();
+        projection = EventProjection.of("TargetUserName", "TargetDomainName", "LogonType", "IpAddress",
+                "IpPort", "TargetLogonId");
+    }
+
+    @Benchmark
+    public EvtRpcRemoteSubscriptionNext decodeOut() throws NdrException {
+        EvtRpcRemoteSubscriptionNext pull = new EvtRpcRemoteSubscriptionNext(new policy_handle(), batchSize, 1000, 0);
+        pull.decode_out(new NdrBuffer(response, 0));
+        return pull;
+    }
+
+    @Benchmark
+    public void records(Blackhole bh) {
+        for (int i = 0; i < batchSize; i++) {
+            bh.consume(new EventRecord(records, indices[i], sizes[i], templateCache));
+        }
+    }
+
+    @Benchmark
+    public void events(Blackhole bh) {
+        for (int i = 0; i < batchSize; i++) {
+            bh.consume(new EventRecord(records, indices[i], sizes[i], templateCache).event());
+        }
+    }
+
+    @Benchmark
+    public void projectedEvents(Blackhole bh) {
+        for (int i = 0; i < batchSize; i++) {
+            bh.consume(new EventRecord(records, indices[i], sizes[i], templateCache, projection).event());
+        }
+    }
+
+    @Benchmark
+    public void endToEnd(Blackhole bh) throws NdrException {
+        EvtRpcRemoteSubscriptionNext pull = new EvtRpcRemoteSubscriptionNext(new policy_handle(), batchSize, 1000, 0);
+        pull.decode_out(new NdrBuffer(response, 0));
+        for (int i = 0; i < pull.numActualRecords; i++) {
+            EventRecord record = new EventRecord(pull.resultBuffer, pull.eventDataIndices[i], pull.eventDataSizes[i],
+                    templateCache);
+            bh.consume(record.event());
+        }
+    }
+}
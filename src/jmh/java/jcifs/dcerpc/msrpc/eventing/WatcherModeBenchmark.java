@@ -0,0 +1,110 @@
+/**
+ * Copyright 2020 Jitendra Kotamraju.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcifs.dcerpc.msrpc.eventing;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Latency of EventLogWatcher from the time a burst of events is available at the
+ * (simulated) server to the time the callback has all of them, in pull mode
+ * (WaitAsync + Next round trips) and push mode (NextAsync round trip). Each request
+ * costs the simulated round trip. The auxiliary counters report the requests and
+ * the events, so requests per event (roughly packets per event) is their ratio.
+ *
+ *     mvn -Pjmh test-compile exec:exec -Djmh.args="WatcherModeBenchmark -p roundTripMicros=500"
+ *
+ * @author Jitendra Kotamraju
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WatcherModeBenchmark {
+
+    @Param({"pull", "push"})
+    public String mode;
+
+    @Param({"1", "64"})
+    public int burst;
+
+    @Param({"0", "500"})
+    public int roundTripMicros;
+
+    private FakeEventLogSession session;
+    private EventLogWatcher watcher;
+    private byte[][] events;
+    private final Semaphore delivered = new Semaphore(0);
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Requests {
+        public long requests;
+        public long events;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        byte[] record = EventRecordTest.record(BenchmarkEvents.binXmlResource("4624"), 1);
+        events = new byte[burst][];
+        for (int i = 0; i < burst; i++) {
+            events[i] = record;
+        }
+
+        session = new FakeEventLogSession();
+        session.roundTripNanos = TimeUnit.MICROSECONDS.toNanos(roundTripMicros);
+        EventLogQuery query = new EventLogQuery("Security", EventLogQuery.PathType.LogName, "*", session, false);
+        watcher = new EventLogWatcher(query, records -> delivered.release(records.size()));
+        watcher.setPushMode(mode.equals("push"));
+        watcher.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        watcher.close();
+    }
+
+    @Benchmark
+    public void deliver(Requests requests) throws InterruptedException {
+        long before = requests();
+        session.publish(events);
+        delivered.acquire(burst);
+        requests.requests += requests() - before;
+        requests.events += burst;
+    }
+
+    private long requests() {
+        return session.pulls.get() + session.waits.get() + session.nextAsyncs.get();
+    }
+}
@@ -22,9 +22,13 @@ package jcifs.dcerpc;
 import java.io.*;
 import java.net.*;
 import java.security.Principal;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntFunction;
 
 import jcifs.smb.NtlmPasswordAuthentication;
 import jcifs.dcerpc.ndr.NdrBuffer;
+import jcifs.util.Encdec;
 
 public abstract class DcerpcHandle implements DcerpcConstants {
 
@@ -106,8 +110,9 @@ public abstract class DcerpcHandle implements DcerpcConstants {
     protected int max_recv = max_xmit;
     protected int state = 0;
     protected DcerpcSecurityProvider securityProvider = null;
-    private static int call_id = 1;
+    private static final AtomicInteger call_id = new AtomicInteger(1);   // responses are matched by it
     protected int assocGroup = 0;
+    private final ReentrantLock bindLock = new ReentrantLock();
 
     public static DcerpcHandle getHandle(String url,
                 NtlmPasswordAuthentication auth)
@@ -121,15 +126,19 @@ public abstract class DcerpcHandle implements DcerpcConstants {
     }
 
     public void bind() throws DcerpcException, IOException {
-        synchronized (this) {
-            try {
-                state = 1;
-                DcerpcMessage bind = new DcerpcBind(binding, this);
-                sendrecv(bind);
-               } catch (IOException ioe) {
-                state = 0;
-                throw ioe;
-            }
+        /* A lock rather than synchronized, so that a virtual thread that
+         * waits for the bind response doesn't pin its carrier thread.
+         */
+        bindLock.lock();
+        try {
+            state = 1;
+            DcerpcMessage bind = new DcerpcBind(binding, this);
+            sendrecv(bind);
+        } catch (IOException ioe) {
+            state = 0;
+            throw ioe;
+        } finally {
+            bindLock.unlock();
         }
     }
 
@@ -142,8 +151,8 @@ public abstract class DcerpcHandle implements DcerpcConstants {
     }
 
     private void sendrecv(DcerpcMessage msg, boolean recv) throws DcerpcException, IOException {
-        byte[] stub, frag;
-        NdrBuffer buf, fbuf;
+        byte[] stub;
+        NdrBuffer buf;
         boolean isLast, isDirect;
         DcerpcException de;
 
@@ -160,7 +169,7 @@ public abstract class DcerpcHandle implements DcerpcConstants {
             buf = new NdrBuffer(stub, 0);
 
             msg.flags = DCERPC_FIRST_FRAG | DCERPC_LAST_FRAG;
-            msg.call_id = call_id++;
+            msg.call_id = call_id.getAndIncrement();
 
             msg.encode(buf);
 
@@ -206,63 +215,100 @@ public abstract class DcerpcHandle implements DcerpcConstants {
                 return;
             }
 
-            doReceiveFragment(stub, isDirect);
-            buf.reset();
-            buf.setIndex(8);
-            buf.setLength(buf.dec_ndr_short());
+            doReceive(callId -> msg, stub, isDirect);
+        } finally {
+            jcifs.smb.BufferCache.releaseBuffer(stub);
+        }
 
-            if (securityProvider != null)
-                securityProvider.unwrap(buf);
+        if ((de = msg.getResult()) != null)
+            throw de;
+    }
+
+    /**
+     * Receives the next response when several requests are outstanding on this handle.
+     * The response is decoded into the message of its call id, and the caller checks
+     * its result.
+     * A SocketTimeoutException means that none of the response is read, and the
+     * response can still be received later on this handle.
+     *
+     * @param calls message of an outstanding call id (a message that discards the
+     *              response if the call is no longer of interest)
+     * @return the message that has the response
+     */
+    public DcerpcMessage receive(IntFunction<DcerpcMessage> calls) throws IOException {
+        byte[] stub = jcifs.smb.BufferCache.getBuffer();
+        try {
+            return doReceive(calls, stub, false);
+        } finally {
+            jcifs.smb.BufferCache.releaseBuffer(stub);
+        }
+    }
 
-            buf.setIndex(0);
+    private DcerpcMessage doReceive(IntFunction<DcerpcMessage> calls, byte[] stub, boolean isDirect)
+            throws IOException {
+        DcerpcMessage msg;
+        NdrBuffer buf, fbuf;
+        byte[] frag;
+        int off;
 
-            msg.decode_header(buf);
+        doReceiveFragment(stub, isDirect);
+        msg = calls.apply(Encdec.dec_uint32le(stub, 12));       // call_id of the pdu header
+        buf = new NdrBuffer(stub, 0);
+        buf.setIndex(8);
+        buf.setLength(buf.dec_ndr_short());
 
-            off = 24;
-            if (msg.ptype == 2 && msg.isFlagSet(DCERPC_LAST_FRAG) == false)
-                off = msg.length;
+        if (securityProvider != null)
+            securityProvider.unwrap(buf);
 
-            frag = null;
-            fbuf = null;
-            while (msg.isFlagSet(DCERPC_LAST_FRAG) == false) {
-                int stub_frag_len;
+        buf.setIndex(0);
 
-                if (frag == null) {
-                    frag = new byte[max_recv];
-                    fbuf = new NdrBuffer(frag, 0);
-                }
+        msg.decode_header(buf);
+
+        off = 24;
+        if (msg.ptype == 2 && msg.isFlagSet(DCERPC_LAST_FRAG) == false)
+            off = msg.length;
+
+        frag = null;
+        fbuf = null;
+        while (msg.isFlagSet(DCERPC_LAST_FRAG) == false) {
+            int stub_frag_len;
 
+            if (frag == null) {
+                frag = new byte[max_recv];
+                fbuf = new NdrBuffer(frag, 0);
+            }
+
+            try {
                 doReceiveFragment(frag, isDirect);
-                fbuf.reset();
-                fbuf.setIndex(8);
-                fbuf.setLength(fbuf.dec_ndr_short());
-
-                if (securityProvider != null)
-                    securityProvider.unwrap(fbuf);
-
-                fbuf.reset();
-                msg.decode_header(fbuf);
-                stub_frag_len = msg.length - 24;
-
-                if ((off + stub_frag_len) > stub.length) {
-                    // shouldn't happen if alloc_hint is correct or greater
-                    byte[] tmp = new byte[off + stub_frag_len];
-                    System.arraycopy(stub, 0, tmp, 0, off);
-                    stub = tmp;
-                }
+            } catch (SocketTimeoutException ste) {
+                // a part of the response is already read, the connection cannot be used
+                throw new IOException("Read timed out within a fragmented response", ste);
+            }
+            fbuf.reset();
+            fbuf.setIndex(8);
+            fbuf.setLength(fbuf.dec_ndr_short());
+
+            if (securityProvider != null)
+                securityProvider.unwrap(fbuf);
 
-                System.arraycopy(frag, 24, stub, off, stub_frag_len);
-                off += stub_frag_len;
+            fbuf.reset();
+            msg.decode_header(fbuf);
+            stub_frag_len = msg.length - 24;
+
+            if ((off + stub_frag_len) > stub.length) {
+                // shouldn't happen if alloc_hint is correct or greater
+                byte[] tmp = new byte[off + stub_frag_len];
+                System.arraycopy(stub, 0, tmp, 0, off);
+                stub = tmp;
             }
 
-            buf = new NdrBuffer(stub, 0);
-            msg.decode(buf);
-        } finally {
-            jcifs.smb.BufferCache.releaseBuffer(stub);
+            System.arraycopy(frag, 24, stub, off, stub_frag_len);
+            off += stub_frag_len;
         }
 
-        if ((de = msg.getResult()) != null)
-            throw de;
+        buf = new NdrBuffer(stub, 0);
+        msg.decode(buf);
+        return msg;
     }
 
     public void setAssocGroup(int assocGroup) {
@@ -40,6 +40,9 @@ public abstract class DcerpcMessage extends NdrObject implements DcerpcConstants
     public void setFlag(int flag) {
         flags |= flag;
     }
+    public int getCallId() {
+        return call_id;
+    }
     public DcerpcException getResult() {
         if (result != 0)
             return new DcerpcException(result);
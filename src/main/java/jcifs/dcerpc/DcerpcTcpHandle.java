@@ -21,6 +21,7 @@ import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.util.logging.Logger;
 
 import jcifs.dcerpc.msrpc.EpmMap;
@@ -157,7 +158,15 @@ public class DcerpcTcpHandle extends DcerpcHandle implements AutoCloseable {
 
         int n = 0;
         while (n < len) {
-            int count = in.read(b, off + n, len - n);
+            int count;
+            try {
+                count = in.read(b, off + n, len - n);
+            } catch (SocketTimeoutException e) {
+                if (off == 0 && n == 0) {
+                    throw e;            // nothing of the pdu is read, the stream is still in sync
+                }
+                throw new IOException(String.format("Read timed out within a pdu, read = %d", off + n), e);
+            }
             if (count < 0)
                 break;
             n += count;
@@ -0,0 +1,67 @@
+/**
+ * Copyright 2020 Jitendra Kotamraju.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcifs.dcerpc.msrpc.eventing;
+
+/*
+ * Number of records requested by a pull. It doubles while the batches come back
+ * full (there is a backlog), as long as the result buffer of a batch is expected
+ * to stay within the byte budget. It halves towards the floor when a batch is
+ * not full (the backlog is drained). Used by only one pull loop, not thread-safe.
+ *
+ * @author Jitendra Kotamraju
+ */
+class AdaptiveBatchSize {
+    private final int min;
+    private final int max;
+    private final int byteBudget;
+    private int current;
+
+    AdaptiveBatchSize(int min, int max, int byteBudget) {
+        if (min < 1 || max < min || max > even6.MAX_RPC_RECORD_COUNT) {
+            String msg = String.format("Invalid batch size range [%d, %d], should be within [1, %d]",
+                    min, max, even6.MAX_RPC_RECORD_COUNT);
+            throw new IllegalArgumentException(msg);
+        }
+        this.min = min;
+        this.max = max;
+        this.byteBudget = byteBudget;
+        this.current = min;
+    }
+
+    // records to request in the next pull
+    int next() {
+        return current;
+    }
+
+    // adjusts the size after a pull of requested records
+    void update(int requested, int received, int resultBufferSize) {
+        if (received == requested && resultBufferSize < byteBudget) {
+            int size = Math.min(max, current * 2);
+            if (received > 0 && resultBufferSize > 0) {
+                int recordSize = Math.max(1, resultBufferSize / received);
+                size = Math.min(size, Math.max(min, byteBudget / recordSize));
+            }
+            current = size;
+        } else {
+            current = Math.max(min, current / 2);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "(current=" + current + ", min=" + min + ", max=" + max + ", byteBudget=" + byteBudget + ")";
+    }
+}
@@ -15,10 +15,12 @@
  */
 package jcifs.dcerpc.msrpc.eventing;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.Objects;
 
 /*
  * @author Jitendra Kotamraju
@@ -41,7 +43,33 @@ abstract class BinXmlNode {
         }
 
         String xml() {
-            return element != null ? element.xml() : template.xml();
+            StringBuilder sb = new StringBuilder();
+            try {
+                xml(sb);
+            } catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);        // StringBuilder doesn't throw
+            }
+            return sb.toString();
+        }
+
+        void xml(Appendable out) throws IOException {
+            if (element != null) {
+                element.xml(out);
+            } else {
+                template.xml(out);
+            }
+        }
+
+        BinXmlElement element() {
+            return element;
+        }
+
+        void event(EventBuilder builder) {
+            if (element != null) {
+                element.event(builder);
+            } else {
+                template.event(builder);
+            }
         }
     }
 
@@ -52,6 +80,8 @@ abstract class BinXmlNode {
         private String tag;
         private String text;
         private Substitution textSubstitution;
+        private volatile EventSystem.Binding systemBinding;
+        private volatile DataBinding dataBinding;
 
         BinXmlElement() {
             children = new ArrayList<>();
@@ -78,44 +108,219 @@ abstract class BinXmlNode {
             attributeList.add(attribute);
         }
 
-        String xml() {
-            return xml(Collections.emptyList());
+        void xml(Appendable out) throws IOException {
+            xml(out, Collections.emptyList());
         }
 
-        private String xml(List<BinXmlParser.ValueEntry> substitutions) {
+        // Writes the element in a single pass, escaping text and attribute values on the way
+        private void xml(Appendable out, List<BinXmlParser.ValueEntry> substitutions) throws IOException {
             if (skipElement(substitutions,this)) {
-                return "";
+                return;
             }
-            StringBuilder sb = new StringBuilder();
-            sb.append("<");
-            sb.append(tag);
-            if (!attributeList.isEmpty()) {
-                for(Attribute attribute : attributeList) {
-                    if (!skipAttribute(substitutions, attribute)) {
-                        String value = attributeValue(substitutions, attribute);
-                        sb.append(" ");
-                        sb.append(attribute.name).append("=").append("\"").append(value).append("\"");
-                    }
+            out.append('<').append(tag);
+            for(Attribute attribute : attributeList) {
+                if (!skipAttribute(substitutions, attribute)) {
+                    out.append(' ').append(attribute.name).append("=\"");
+                    escape(out, String.valueOf(attributeValue(substitutions, attribute)), true);
+                    out.append('"');
                 }
             }
 
-            String text = text(substitutions);
-            if (children.isEmpty() && text == null) {
-                sb.append("/>");
+            Object value = text == null && textSubstitution != null
+                    ? substitutions.get(textSubstitution.index).value()
+                    : null;
+            String str = value instanceof BinXmlRoot ? null : text(substitutions);
+            if (children.isEmpty() && value == null && str == null) {
+                out.append("/>");
             } else {
-                sb.append(">");
-                if (!children.isEmpty()) {
-                    for (BinXmlElement child : children) {
-                        sb.append(child.xml(substitutions));
+                out.append('>');
+                for (BinXmlElement child : children) {
+                    child.xml(out, substitutions);
+                }
+                if (value instanceof BinXmlRoot) {
+                    ((BinXmlRoot) value).xml(out);              // nested fragment is already xml
+                } else if (str != null) {
+                    escape(out, str, false);
+                }
+                out.append("</").append(tag).append('>');
+            }
+        }
+
+        private static void escape(Appendable out, String str, boolean attribute) throws IOException {
+            int mark = 0;
+            for (int i = 0; i < str.length(); i++) {
+                String entity;
+                switch (str.charAt(i)) {
+                    case '&':
+                        entity = "&amp;";
+                        break;
+                    case '<':
+                        entity = "&lt;";
+                        break;
+                    case '>':
+                        entity = attribute ? null : "&gt;";
+                        break;
+                    case '"':
+                        entity = attribute ? "&quot;" : null;
+                        break;
+                    default:
+                        entity = null;
+                        break;
+                }
+                if (entity != null) {
+                    out.append(str, mark, i).append(entity);
+                    mark = i + 1;
+                }
+            }
+            out.append(str, mark, str.length());
+        }
+
+        void event(EventBuilder builder) {
+            event(builder, Collections.emptyList());
+        }
+
+        // Same traversal as xml(), but the callbacks go to the builder instead of a string
+        private void event(EventBuilder builder, List<BinXmlParser.ValueEntry> substitutions) {
+            if (skipElement(substitutions, this)) {
+                return;
+            }
+            builder.startElement(tag);
+            // substituted values are passed as they are, so the builder formats only what it keeps
+            for(Attribute attribute : attributeList) {
+                if (skipAttribute(substitutions, attribute)) {
+                    continue;
+                }
+                if (attribute.value == null && attribute.substitution != null) {
+                    builder.attribute(attribute.name, substitutions.get(attribute.substitution.index));
+                } else {
+                    builder.attribute(attribute.name, attribute.value);
+                }
+            }
+            if ("EventData".equals(tag)) {
+                eventData(builder, substitutions);
+                builder.endElement();
+                return;
+            }
+            for (BinXmlElement child : children) {
+                child.event(builder, substitutions);
+            }
+            if (text == null && textSubstitution != null) {
+                BinXmlParser.ValueEntry entry = substitutions.get(textSubstitution.index);
+                if (entry.isBinXml()) {
+                    ((BinXmlRoot) entry.value()).event(builder);    // nested fragment's elements
+                } else {
+                    builder.text(entry);
+                }
+            } else if (text != null && !text.isEmpty()) {
+                builder.text(text);
+            }
+            builder.endElement();
+        }
+
+        // Passes the values of <Data> children by position, without walking them
+        private void eventData(EventBuilder builder, List<BinXmlParser.ValueEntry> substitutions) {
+            EventDecoderRegistry.Registration decoder = builder.eventDataDecoder();
+            if (decoder == null) {
+                return;
+            }
+            DataBinding binding = dataBinding(decoder, builder.projection());
+            for (int i = 0; i < binding.index.length; i++) {
+                if (binding.index[i] != -1) {
+                    BinXmlParser.ValueEntry entry = substitutions.get(binding.index[i]);
+                    if (entry.valueByteLength != 0 && !entry.isEmptyString()) {
+                        builder.data(i, entry);
                     }
+                } else if (binding.literal[i] != null && !binding.literal[i].isEmpty()) {
+                    builder.data(i, binding.literal[i]);
                 }
-                if (text != null) {
-                    sb.append(text);
+            }
+        }
+
+        // For an <EventData> element, where the decoder's projected values are. Computed once per template
+        private DataBinding dataBinding(EventDecoderRegistry.Registration decoder, EventProjection projection) {
+            DataBinding binding = dataBinding;
+            if (binding == null || binding.decoder != decoder || binding.projection != projection) {
+                binding = new DataBinding(decoder, projection);
+                for (BinXmlElement child : children) {
+                    if (!"Data".equals(child.tag)) {
+                        continue;
+                    }
+                    for (Attribute attribute : child.attributeList) {
+                        if ("Name".equals(attribute.name) && attribute.value != null
+                                && projection.contains(attribute.value)) {
+                            int position = decoder.position(attribute.value);
+                            if (position != -1) {
+                                if (child.text != null) {
+                                    binding.literal[position] = child.text;
+                                } else if (child.textSubstitution != null) {
+                                    binding.index[position] = child.textSubstitution.index;
+                                }
+                            }
+                        }
+                    }
                 }
-                sb.append("</").append(tag).append(">");
+                dataBinding = binding;
             }
+            return binding;
+        }
 
-            return sb.toString();
+        // For an <Event> element, where its System properties are
+        EventSystem.Binding systemBinding() {
+            EventSystem.Binding binding = systemBinding;
+            if (binding == null) {
+                binding = new EventSystem.Binding();
+                for (BinXmlElement child : children) {
+                    if ("System".equals(child.tag)) {
+                        child.bindSystem(binding);
+                    }
+                }
+                systemBinding = binding;
+            }
+            return binding;
+        }
+
+        private void bindSystem(EventSystem.Binding binding) {
+            for (BinXmlElement child : children) {
+                switch (child.tag) {
+                    case "Provider":
+                        child.bindAttribute("Name", binding, EventSystem.PROVIDER);
+                        break;
+                    case "EventID":
+                        child.bindText(binding, EventSystem.EVENT_ID);
+                        break;
+                    case "Level":
+                        child.bindText(binding, EventSystem.LEVEL);
+                        break;
+                    case "Keywords":
+                        child.bindText(binding, EventSystem.KEYWORDS);
+                        break;
+                    case "TimeCreated":
+                        child.bindAttribute("SystemTime", binding, EventSystem.TIME_CREATED);
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+
+        private void bindText(EventSystem.Binding binding, int field) {
+            if (text != null) {
+                binding.literal[field] = text;
+            } else if (textSubstitution != null) {
+                binding.index[field] = textSubstitution.index;
+            }
+        }
+
+        private void bindAttribute(String name, EventSystem.Binding binding, int field) {
+            for (Attribute attribute : attributeList) {
+                if (name.equals(attribute.name)) {
+                    if (attribute.value != null) {
+                        binding.literal[field] = attribute.value;
+                    } else if (attribute.substitution != null) {
+                        binding.index[field] = attribute.substitution.index;
+                    }
+                }
+            }
         }
 
         private boolean skipElement(List<BinXmlParser.ValueEntry> substitutions, BinXmlElement element) {
@@ -136,8 +341,7 @@ abstract class BinXmlNode {
             if (attribute.value != null) {
                 return attribute.value;
             } else if (attribute.substitution != null) {
-                Object value = substitutions.get(attribute.substitution.index).value;
-                return Objects.toString(value);
+                return substitutions.get(attribute.substitution.index).text();
             }
 
             return null;
@@ -147,11 +351,7 @@ abstract class BinXmlNode {
             if (text != null) {
                 return text;
             } else if (textSubstitution != null) {
-                Object value = substitutions.get(textSubstitution.index).value;
-                if (value instanceof BinXmlRoot) {
-                    return ((BinXmlRoot) value).xml();
-                }
-                return Objects.toString(value);
+                return substitutions.get(textSubstitution.index).text();
             }
 
             return null;
@@ -176,10 +376,34 @@ abstract class BinXmlNode {
             this.element = child;
         }
 
-        String xml() {
-            return element.xml(substitutions);
+        BinXmlElement element() {
+            return element;
         }
 
+        void xml(Appendable out) throws IOException {
+            element.xml(out, substitutions);
+        }
+
+        void event(EventBuilder builder) {
+            element.event(builder, substitutions);
+        }
+
+    }
+
+    // Substitution index or literal text of each projected EventData value of a decoder
+    static final class DataBinding {
+        final EventDecoderRegistry.Registration decoder;
+        final EventProjection projection;
+        final int[] index;
+        final String[] literal;
+
+        DataBinding(EventDecoderRegistry.Registration decoder, EventProjection projection) {
+            this.decoder = decoder;
+            this.projection = projection;
+            this.index = new int[decoder.names.length];
+            this.literal = new String[decoder.names.length];
+            Arrays.fill(index, -1);
+        }
     }
 
     static class Substitution {
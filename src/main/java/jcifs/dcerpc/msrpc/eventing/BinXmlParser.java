@@ -18,18 +18,29 @@ package jcifs.dcerpc.msrpc.eventing;
 import jcifs.dcerpc.msrpc.eventing.BinXmlNode.BinXmlElement;
 import jcifs.dcerpc.msrpc.eventing.BinXmlNode.BinXmlRoot;
 import jcifs.dcerpc.msrpc.eventing.BinXmlNode.BinXmlTemplate;
+import jcifs.dcerpc.msrpc.eventing.BinXmlTemplateCache.TemplateKey;
 import jcifs.util.Encdec;
 
-import java.time.Duration;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
-import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Objects;
 import java.util.function.Consumer;
 
 /*
  * A recursive-descent parser for BinXml (MS-EVEN6 2.2.12)
  *
+ * The BinXml of a record in an EVTX file is the same, except that names and template
+ * definitions are written only once per 64 KB chunk. They are referenced by their offset
+ * in the chunk, and are inline only where the offset is the current position.
+ *
  * @author Jitendra Kotamraju
  */
 public class BinXmlParser {
@@ -71,30 +82,136 @@ public class BinXmlParser {
     private static final byte HEX_INT64_TYPE = 0x15;
     private static final byte BIN_XML_TYPE = 0x21;
 
-    private static final Instant ZERO = Instant.parse("1601-01-01T00:00:00Z");
+    private static final long FILETIME_EPOCH_SECONDS = 11644473600L;    // 1601-01-01 to 1970-01-01
 
     private final BinXmlRoot root;
     private final int maxOffset;
+    private final BinXmlTemplateCache templateCache;
+    private final int chunkOffset;      // start of the EVTX chunk, -1 for MS-EVEN6 BinXml
 
     private int inTemplate;
 
     public BinXmlParser(byte[] buf, int offset, int length) {
+        this(buf, offset, length, null);
+    }
+
+    /*
+     * Template definitions are looked up in the given cache (if not null) using template's GUID,
+     * and only TemplateInstanceData is parsed for the cached templates.
+     */
+    public BinXmlParser(byte[] buf, int offset, int length, BinXmlTemplateCache templateCache) {
+        this(buf, offset, length, templateCache, -1);
+    }
+
+    // BinXml of an EVTX record, whose names and templates are referenced by their offset in the chunk
+    BinXmlParser(byte[] buf, int offset, int length, BinXmlTemplateCache templateCache, int chunkOffset) {
+        this.templateCache = templateCache;
+        this.chunkOffset = chunkOffset;
         maxOffset = offset + length;
         root = new BinXmlRoot();
         offset = parseDocument(root, buf, offset);
 
-        assert offset == maxOffset;
+        assert offset == maxOffset || chunkOffset != -1;
+    }
+
+    // Only for reading System properties, doesn't parse the document
+    private BinXmlParser(int maxOffset, BinXmlTemplateCache templateCache, int chunkOffset) {
+        this.templateCache = templateCache;
+        this.chunkOffset = chunkOffset;
+        this.maxOffset = maxOffset;
+        this.root = null;
+    }
+
+    /*
+     * Reads the System properties (Provider, EventID, Level, Keywords, TimeCreated) of an event
+     * without building it. Only the template definition (when it is not cached) and the ValueSpec
+     * are parsed, and the properties are decoded from the substitution values when accessed.
+     */
+    public static EventSystem system(byte[] buf, int offset, int length, BinXmlTemplateCache templateCache) {
+        return system(buf, offset, length, templateCache, -1);
+    }
+
+    static EventSystem system(byte[] buf, int offset, int length, BinXmlTemplateCache templateCache,
+            int chunkOffset) {
+        return new BinXmlParser(offset + length, templateCache, chunkOffset).parseSystem(buf, offset, length);
+    }
+
+    private EventSystem parseSystem(byte[] buf, int offset, int length) {
+        int start = offset;
+        while (buf[offset] == FRAGMENT_HEADER) {
+            offset = parseFragmentHeader(buf, offset);
+        }
+        if (buf[offset] != TEMPLATE_INSTANCE) {
+            // No substitutions, everything is in the element tree
+            BinXmlParser parser = new BinXmlParser(buf, start, length, templateCache, chunkOffset);
+            return new EventSystem(parser.root.element().systemBinding(), buf);
+        }
+
+        BinXmlTemplate template = new BinXmlTemplate();
+        offset = parseTemplateReference(template, buf, offset);
+        EventSystem system = new EventSystem(template.element().systemBinding(), buf);
+
+        // TemplateInstanceData = ValueSpec *Value
+        int noValues = Encdec.dec_uint32le(buf, offset);
+        offset += 4;                // NumValues
+        int valueOffset = offset + 4 * noValues;
+        for(int i=0; i < noValues; i++) {
+            // ValueSpecEntry = ValueByteLength ValueType %x00
+            int valueByteLength = Short.toUnsignedInt(Encdec.dec_uint16le(buf, offset));
+            system.value(i, buf[offset + 2], valueOffset, valueByteLength);
+            valueOffset += valueByteLength;
+            offset += 4;
+        }
+        return system;
     }
 
     public String xml() {
         return root.xml();
     }
 
+    /*
+     * Renders the xml into the given sink, without creating intermediate strings per element
+     */
+    public void xml(Appendable out) throws IOException {
+        root.xml(out);
+    }
+
+    /*
+     * Renders the xml into the given stream using UTF-8 encoding. The stream is flushed, but not closed.
+     */
+    public void xml(OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        root.xml(writer);
+        writer.flush();
+    }
+
+    /*
+     * Decodes the Event directly from the BinXml tree and substitution values,
+     * without rendering and re-parsing the xml
+     */
+    public Event event() {
+        return event(EventDecoderRegistry.getDefault(), EventProjection.ALL);
+    }
+
+    // Same as event(), but EventData is decoded with the given registry's decoders
+    public Event event(EventDecoderRegistry registry) {
+        return event(registry, EventProjection.ALL);
+    }
+
+    // Same as event(), but only the projected EventData values are decoded
+    public Event event(EventDecoderRegistry registry, EventProjection projection) {
+        EventBuilder builder = new EventBuilder(registry, projection);
+        root.event(builder);
+        return builder.build();
+    }
+
     // Document = 0*1Prolog Fragment 0*1Misc EOFToken
     private int parseDocument(BinXmlRoot element, byte[] buf, int offset) {
         offset = parseFragment(element, buf, offset);
         if (buf[offset] == EOF) {
             offset++;                   // EOFToken
+        } else if (chunkOffset != -1) {
+            // EVTX record ends with the template instance data
         } else {
             throw new RuntimeException("No EOF at the end of Document. offset = " + offset);
         }
@@ -125,12 +242,27 @@ public class BinXmlParser {
         BinXmlTemplate child = new BinXmlTemplate();
         node.addChild(child);
 
-        offset++;                   // TemplateInstanceToken
-        offset = parseTemplateDef(child, buf, offset);
+        offset = parseTemplateReference(child, buf, offset);
         offset = parseTemplateInstanceData(child, buf, offset);
         return offset;
     }
 
+    // TemplateInstanceToken TemplateDef, or in EVTX
+    // TemplateInstanceToken %x01 TemplateId TemplateDefOffset 0*1TemplateDef
+    private int parseTemplateReference(BinXmlTemplate template, byte[] buf, int offset) {
+        offset++;                   // TemplateInstanceToken
+        if (chunkOffset == -1) {
+            return parseTemplateDef(template, buf, offset);
+        }
+
+        offset += 1;                // %x01
+        offset += 4;                // TemplateId
+        int templateDefOffset = chunkOffset + Encdec.dec_uint32le(buf, offset);
+        offset += 4;                // TemplateDefOffset
+        int end = parseTemplateDef(template, buf, templateDefOffset);
+        return templateDefOffset == offset ? end : offset;
+    }
+
     // TemplateInstanceData = ValueSpec *Value
     private int parseTemplateInstanceData(BinXmlTemplate template, byte[] buf, int offset) {
         assert offset < maxOffset;
@@ -158,48 +290,22 @@ public class BinXmlParser {
     private int parseValue(ValueEntry entry, byte[] buf, int offset) {
         assert offset < maxOffset;
 
+        // Values are formatted only when they are asked for (see ValueEntry)
         switch (entry.valueType) {
             case NULL_TYPE :
-                entry.setValue(null);
                 break;
             case STRING_TYPE:
-                String str = unicodeString(entry.valueByteLength/2, buf, offset);
-                entry.setValue(str);
-                break;
             case UINT8_TYPE :
-                entry.setValue(buf[offset]);
-                break;
             case UINT16_TYPE :
-                entry.setValue(Encdec.dec_uint16le(buf, offset));
-                break;
             case UINT32_TYPE :
-                entry.setValue(Encdec.dec_uint32le(buf, offset));
-                break;
             case UINT64_TYPE :
-                entry.setValue(Encdec.dec_uint64le(buf, offset));
-                break;
             case BOOL_TYPE :
-                entry.setValue(bool(buf, offset));
-                break;
             case GUID_TYPE :
-                String guid = guid(buf, offset);
-                entry.setValue(guid);
-                break;
             case FILE_TIME_TYPE :
-                String time = fileTime(buf, offset);
-                entry.setValue(time);
-                break;
             case HEX_INT32_TYPE :
-                String hex32 = hexInt32(buf, offset);
-                entry.setValue(hex32);
-                break;
             case HEX_INT64_TYPE :
-                String hex = hexInt64(buf, offset);
-                entry.setValue(hex);
-                break;
             case SID_TYPE :
-                String sid = sid(buf, offset);
-                entry.setValue(sid);
+                entry.setRaw(buf, offset);
                 break;
             case BIN_XML_TYPE :
                 BinXmlRoot node = new BinXmlRoot();
@@ -265,15 +371,29 @@ public class BinXmlParser {
     }
 
     // TemplateDef = %b0 TemplateId TemplateDefByteLength 0*FragmentHeader Element EOFToken
+    // (NextTemplateOffset instead of %b0 in EVTX)
     private int parseTemplateDef(BinXmlTemplate template, byte[] buf, int offset) {
         assert offset < maxOffset;
 
-        inTemplate++;
-        offset++;                   // %b0
+        offset += chunkOffset == -1 ? 1 : 4;    // %b0 or NextTemplateOffset
+        long guidLow = Encdec.dec_uint64le(buf, offset);
+        long guidHigh = Encdec.dec_uint64le(buf, offset + 8);
         offset += 16;               // GUID
         int templateDefByteLength = Encdec.dec_uint32le(buf, offset);
         offset += 4;                // TemplateDefByteLength
         int templateInstanceDataOffset = offset + templateDefByteLength;
+
+        TemplateKey key = null;
+        if (templateCache != null) {
+            key = new TemplateKey(guidLow, guidHigh, templateDefByteLength);
+            BinXmlElement element = templateCache.get(key);
+            if (element != null) {
+                template.addChild(element);
+                return templateInstanceDataOffset;
+            }
+        }
+
+        inTemplate++;
         while (buf[offset] == FRAGMENT_HEADER) {
             offset = parseFragmentHeader(buf, offset);
         }
@@ -285,6 +405,10 @@ public class BinXmlParser {
         }
         inTemplate--;
 
+        if (key != null) {
+            templateCache.put(key, template.element());
+        }
+
         // Waste bytes that could occur after template definition EOF but included in TemplateDefLength
         return templateInstanceDataOffset;
     }
@@ -427,7 +551,7 @@ public class BinXmlParser {
         boolean more = more(buf[offset]);
 
         offset++;                   // OpenStartElementToken
-        if (inTemplate > 0) {       // in template or not
+        if (inTemplate > 0 || chunkOffset != -1) {       // in template (always in EVTX) or not
             offset += 2;            // DependencyId
         }
         offset += 4;                // ElementByteLength
@@ -562,10 +686,21 @@ public class BinXmlParser {
         return offset;
     }
 
-    // Name = NameHash NameNumChars NullTerminatedUnicodeString
+    // Name = NameHash NameNumChars NullTerminatedUnicodeString, or in EVTX
+    // NameOffset 0*1(NextNameOffset Name)
     private int parseName(Consumer<String> nameConsumer, byte[] buf, int offset) {
         assert offset < maxOffset;
 
+        if (chunkOffset != -1) {
+            int nameOffset = chunkOffset + Encdec.dec_uint32le(buf, offset);
+            offset += 4;        // NameOffset
+            int end = parseInlineName(nameConsumer, buf, nameOffset + 4);
+            return nameOffset == offset ? end : offset;
+        }
+        return parseInlineName(nameConsumer, buf, offset);
+    }
+
+    private int parseInlineName(Consumer<String> nameConsumer, byte[] buf, int offset) {
         offset += 2;            // NameHash
 
         int noChars = Encdec.dec_uint16le(buf, offset);
@@ -618,7 +753,56 @@ public class BinXmlParser {
         return (byte) (b | MORE);
     }
 
-    private String unicodeString(int noChars, byte[] buf, int offset) {
+    // Whether numberValue() decodes the value type as a number
+    static boolean isNumberType(byte valueType) {
+        switch (valueType) {
+            case UINT8_TYPE:
+            case UINT16_TYPE:
+            case UINT32_TYPE:
+            case UINT64_TYPE:
+            case HEX_INT32_TYPE:
+            case HEX_INT64_TYPE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    static boolean isStringType(byte valueType) {
+        return valueType == STRING_TYPE;
+    }
+
+    static boolean isFileTimeType(byte valueType) {
+        return valueType == FILE_TIME_TYPE;
+    }
+
+    // Unsigned integer value of an integral substitution value
+    static long numberValue(byte valueType, byte[] buf, int offset) {
+        switch (valueType) {
+            case UINT8_TYPE:
+                return Byte.toUnsignedLong(buf[offset]);
+            case UINT16_TYPE:
+                return Short.toUnsignedLong(Encdec.dec_uint16le(buf, offset));
+            case UINT32_TYPE:
+            case HEX_INT32_TYPE:
+                return Integer.toUnsignedLong(Encdec.dec_uint32le(buf, offset));
+            case UINT64_TYPE:
+            case HEX_INT64_TYPE:
+            case FILE_TIME_TYPE:
+                return Encdec.dec_uint64le(buf, offset);
+            default:
+                throw new UnsupportedOperationException(String.format("TODO valueType=0x%02x", valueType));
+        }
+    }
+
+    static String stringValue(byte valueType, byte[] buf, int offset, int valueByteLength) {
+        if (valueType != STRING_TYPE) {
+            throw new UnsupportedOperationException(String.format("TODO valueType=0x%02x", valueType));
+        }
+        return unicodeString(valueByteLength/2, buf, offset);
+    }
+
+    private static String unicodeString(int noChars, byte[] buf, int offset) {
         char[] chars = new char[noChars];
         for(int i=0; i < noChars; i++) {
             chars[i] = (char) Encdec.dec_uint16le(buf, offset + 2 * i);
@@ -650,7 +834,7 @@ public class BinXmlParser {
        ; the identifier authority is represented in
        ; hexadecimal
      */
-    private String sid(byte[] buf, int offset) {
+    private static String sid(byte[] buf, int offset) {
         // byte revision = buf[offset];
         int subAuthorityCount = Byte.toUnsignedInt(buf[offset + 1]);
         // TODO assuming identifierAuthority is < 2^32
@@ -664,12 +848,12 @@ public class BinXmlParser {
         return sb.toString();
     }
 
-    private String hexInt64(byte[] buf, int offset) {
+    private static String hexInt64(byte[] buf, int offset) {
         long value = Encdec.dec_uint64le(buf, offset);
         return "0x" + Long.toHexString(value);
     }
 
-    private String hexInt32(byte[] buf, int offset) {
+    private static String hexInt32(byte[] buf, int offset) {
         int value = Encdec.dec_uint32le(buf, offset);
         return "0x" + Integer.toHexString(value);
     }
@@ -688,7 +872,7 @@ public class BinXmlParser {
         +---------------------------------------------------------------+
 
     */
-    private String guid(byte[] buf, int offset) {
+    private static String guid(byte[] buf, int offset) {
         int data1 = Encdec.dec_uint32le(buf, offset);
         int data2 = Short.toUnsignedInt(Encdec.dec_uint16le(buf, offset + 4));
         int data3 = Short.toUnsignedInt(Encdec.dec_uint16le(buf, offset + 6));
@@ -711,23 +895,40 @@ public class BinXmlParser {
         return sb.toString().toUpperCase();
     }
 
-    private String bool(byte[] buf, int offset) {
+    private static String bool(byte[] buf, int offset) {
         return buf[offset] == 0x00 ? "true" : "false";
     }
 
-    private String fileTime(byte[] buf, int offset) {
+    private static String fileTime(byte[] buf, int offset) {
         long fileTime = Encdec.dec_uint64le(buf, offset);
+        return fileTimeInstant(fileTime).toString();
+    }
 
-        Duration duration = Duration.of(fileTime / 10, ChronoUnit.MICROS)
-                .plus(fileTime % 10 * 100, ChronoUnit.NANOS);
-        Instant instant = ZERO.plus(duration);
-        return instant.toString();
+    // FILETIME is number of 100ns intervals since 1601-01-01T00:00:00Z
+    static Instant fileTimeInstant(long fileTime) {
+        long seconds = Long.divideUnsigned(fileTime, 10_000_000) - FILETIME_EPOCH_SECONDS;
+        long nanos = Long.remainderUnsigned(fileTime, 10_000_000) * 100;
+        return Instant.ofEpochSecond(seconds, nanos);
     }
 
+    // FILETIME as nanoseconds since 1970-01-01T00:00:00Z
+    static long fileTimeNanos(long fileTime) {
+        long seconds = Long.divideUnsigned(fileTime, 10_000_000) - FILETIME_EPOCH_SECONDS;
+        long nanos = Long.remainderUnsigned(fileTime, 10_000_000) * 100;
+        return seconds * 1_000_000_000L + nanos;
+    }
+
+    /*
+     * A substitution value. Only its location is remembered while parsing, and it is
+     * decoded to a typed value or formatted to a string when it is asked for.
+     */
     static class ValueEntry {
         final int valueByteLength;
         byte valueType;
-        Object value;
+        Object value;           // BinXmlRoot, or formatted value once it is asked for
+
+        private byte[] buf;
+        private int offset;
 
         ValueEntry(int valueByteLength) {
             this.valueByteLength = valueByteLength;
@@ -741,6 +942,91 @@ public class BinXmlParser {
             this.valueType = valueType;
         }
 
+        void setRaw(byte[] buf, int offset) {
+            this.buf = buf;
+            this.offset = offset;
+        }
+
+        // BinXmlRoot for BinXml values, formatted string for others
+        Object value() {
+            if (value == null && buf != null) {
+                value = format();
+            }
+            return value;
+        }
+
+        // Same as how the value is written in xml
+        String text() {
+            return Objects.toString(value());
+        }
+
+        boolean isNumber() {
+            return isNumberType(valueType);
+        }
+
+        boolean isBinXml() {
+            return valueType == BIN_XML_TYPE;
+        }
+
+        boolean isFileTime() {
+            return valueType == FILE_TIME_TYPE;
+        }
+
+        boolean isEmptyString() {
+            return valueType == STRING_TYPE && valueByteLength < 2;
+        }
+
+        // Unsigned value of UInt8/16/32/64, HexInt32/64 (and the ticks of a FileTime)
+        long longValue() {
+            return numberValue(valueType, buf, offset);
+        }
+
+        // FileTime as nanoseconds since 1970-01-01T00:00:00Z
+        long fileTimeNanos() {
+            return BinXmlParser.fileTimeNanos(Encdec.dec_uint64le(buf, offset));
+        }
+
+        // First 8 bytes of a Guid in little-endian order
+        long guidLow() {
+            return Encdec.dec_uint64le(buf, offset);
+        }
+
+        // Last 8 bytes of a Guid in little-endian order
+        long guidHigh() {
+            return Encdec.dec_uint64le(buf, offset + 8);
+        }
+
+        // Packet representation of a Sid
+        byte[] sid() {
+            return Arrays.copyOfRange(buf, offset, offset + valueByteLength);
+        }
+
+        private String format() {
+            switch (valueType) {
+                case STRING_TYPE:
+                    return unicodeString(valueByteLength/2, buf, offset);
+                case UINT8_TYPE :
+                case UINT16_TYPE :
+                case UINT32_TYPE :
+                case UINT64_TYPE :
+                    return Long.toUnsignedString(longValue());
+                case BOOL_TYPE :
+                    return bool(buf, offset);
+                case GUID_TYPE :
+                    return guid(buf, offset);
+                case FILE_TIME_TYPE :
+                    return fileTime(buf, offset);
+                case HEX_INT32_TYPE :
+                    return hexInt32(buf, offset);
+                case HEX_INT64_TYPE :
+                    return hexInt64(buf, offset);
+                case SID_TYPE :
+                    return BinXmlParser.sid(buf, offset);
+                default:
+                    throw new UnsupportedOperationException(String.format("TODO valueType=0x%02x", valueType));
+            }
+        }
+
         @Override
         public String toString() {
             return String.format("(type=%02x length=%d)", valueType, valueByteLength);
@@ -0,0 +1,114 @@
+/**
+ * Copyright 2020 Jitendra Kotamraju.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcifs.dcerpc.msrpc.eventing;
+
+import jcifs.dcerpc.msrpc.eventing.BinXmlNode.BinXmlElement;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded LRU cache of parsed BinXml template definitions keyed by template GUID.
+ * Records of the same event share a template, so on a hit only the substitution
+ * values of a record need to be decoded. The cached element trees are never
+ * modified after parsing and can be shared across threads.
+ *
+ * @author Jitendra Kotamraju
+ */
+public class BinXmlTemplateCache {
+    public static final int DEFAULT_MAX_SIZE = 256;
+
+    private final Map<TemplateKey, BinXmlElement> templates;
+    private long hits;
+    private long misses;
+
+    public BinXmlTemplateCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    public BinXmlTemplateCache(int maxSize) {
+        templates = new LinkedHashMap<TemplateKey, BinXmlElement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<TemplateKey, BinXmlElement> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    synchronized BinXmlElement get(TemplateKey key) {
+        BinXmlElement element = templates.get(key);
+        if (element != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return element;
+    }
+
+    synchronized void put(TemplateKey key, BinXmlElement element) {
+        templates.put(key, element);
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    public synchronized int size() {
+        return templates.size();
+    }
+
+    public synchronized void clear() {
+        templates.clear();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "(size=" + templates.size() + ", hits=" + hits + ", misses=" + misses + ")";
+    }
+
+    // TemplateId GUID and TemplateDefByteLength
+    static final class TemplateKey {
+        private final long guidLow;
+        private final long guidHigh;
+        private final int length;
+
+        TemplateKey(long guidLow, long guidHigh, int length) {
+            this.guidLow = guidLow;
+            this.guidHigh = guidHigh;
+            this.length = length;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof TemplateKey)) {
+                return false;
+            }
+            TemplateKey other = (TemplateKey) o;
+            return guidLow == other.guidLow && guidHigh == other.guidHigh && length == other.length;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = Long.hashCode(guidLow);
+            result = 31 * result + Long.hashCode(guidHigh);
+            return 31 * result + length;
+        }
+    }
+}
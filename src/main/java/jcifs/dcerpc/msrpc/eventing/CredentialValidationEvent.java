@@ -0,0 +1,61 @@
+/**
+ * Copyright 2020 Jitendra Kotamraju.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcifs.dcerpc.msrpc.eventing;
+
+/**
+   https://docs.microsoft.com/en-us/windows/security/threat-protection/auditing/event-4776
+   The computer attempted to validate the credentials for an account
+   ...
+   <EventData>
+   <Data Name="PackageName">MICROSOFT_AUTHENTICATION_PACKAGE_V1_0</Data>
+   <Data Name="TargetUserName">dadmin</Data>
+   <Data Name="Workstation">WIN81</Data>
+   <Data Name="Status">0x0</Data>
+
+ * @author Jitendra Kotamraju
+ */
+public class CredentialValidationEvent extends Event {
+    public final String packageName;
+    public final String targetUserName;
+    public final String workstation;
+    public final String status;
+
+    static final String[] NAMES = {
+            "PackageName",
+            "TargetUserName",
+            "Workstation",
+            "Status"
+    };
+
+    protected CredentialValidationEvent(Event system, EventData data) {
+        super(system);
+
+        packageName = data.string(0);
+        targetUserName = data.string(1);
+        workstation = data.string(2);
+        status = data.string(3);
+    }
+
+    @Override
+    public String toString() {
+        return "CredentialValidationEvent{" +
+                "packageName='" + packageName + '\'' +
+                ", targetUserName='" + targetUserName + '\'' +
+                ", workstation='" + workstation + '\'' +
+                ", status='" + status + '\'' +
+                '}';
+    }
+}
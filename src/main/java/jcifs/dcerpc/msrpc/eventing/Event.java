@@ -19,8 +19,6 @@ import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
 import java.io.Reader;
-import java.util.HashMap;
-import java.util.Map;
 
 import static javax.xml.stream.XMLStreamConstants.*;
 
@@ -55,6 +53,7 @@ public class Event {
     public final int opcode;
     public final String keywords;
     public final String timeCreated;
+    public final long timeCreatedNanos;        // since 1970-01-01T00:00:00Z, Long.MIN_VALUE if not present
     public final int eventRecordId;
     public final String activityId;
     public final int processId;
@@ -63,7 +62,7 @@ public class Event {
     public final String computer;
 
     protected Event(int eventId, int version, int level, int task, int opcode, String keywords, String timeCreated,
-                int eventRecordId, String activityId, int processId, int threadId, String channel, String computer) {
+                long timeCreatedNanos, int eventRecordId, String activityId, int processId, int threadId, String channel, String computer) {
 
         this.eventId = eventId;
         this.version = version;
@@ -72,6 +71,7 @@ public class Event {
         this.opcode = opcode;
         this.keywords = keywords;
         this.timeCreated = timeCreated;
+        this.timeCreatedNanos = timeCreatedNanos;
         this.eventRecordId = eventRecordId;
         this.activityId = activityId;
         this.processId = processId;
@@ -80,6 +80,13 @@ public class Event {
         this.computer = computer;
     }
 
+    // System properties of a typed event
+    protected Event(Event system) {
+        this(system.eventId, system.version, system.level, system.task, system.opcode, system.keywords,
+                system.timeCreated, system.timeCreatedNanos, system.eventRecordId, system.activityId,
+                system.processId, system.threadId, system.channel, system.computer);
+    }
+
     @Override
     public String toString() {
         return "Event{" +
@@ -98,146 +105,46 @@ public class Event {
     }
 
     public static Event event(Reader reader) throws XMLStreamException {
-        int eventId = -1;
-        int version = -1;
-        int level = -1;
-        int task = -1;
-        int opcode = -1;
-        String keywords = null;
-        String timeCreated = null;
-        int eventRecordId = -1;
-        String activityId = null;
-        int processId = -1;
-        int threadId = -1;
-        String channel = null;
-        String computer = null;
-        Map<String, String> eventData = new HashMap<>();
-
-        XMLStreamReader sr = XMLInputFactory.newInstance().createXMLStreamReader(reader);
-        while (sr.hasNext()) {
-            int eventType = sr.next();
-            if (eventType == START_ELEMENT) {
-                switch (sr.getLocalName()) {
-                    case "EventID":
-                        eventId = parseIntegerText(sr);
-                        break;
-                    case "Version":
-                        version = parseIntegerText(sr);
-                        break;
-                    case "Level":
-                        level = parseIntegerText(sr);
-                        break;
-                    case "Task":
-                        task = parseIntegerText(sr);
-                        break;
-                    case "Opcode":
-                        opcode = parseIntegerText(sr);
-                        break;
-                    case "Keywords":
-                        keywords = parseStringText(sr);
-                        break;
-                    case "TimeCreated":
-                        Map<String, String> time = parseAttributes(sr);
-                        timeCreated = time.get("SystemTime");
-                        break;
-                    case "EventRecordID":
-                        eventRecordId = parseIntegerText(sr);
-                        break;
-                    case "Correlation":
-                        Map<String, String> correlation = parseAttributes(sr);
-                        activityId = correlation.get("ActivityID");
-                        break;
-                    case "Execution":
-                        Map<String, String> exec = parseAttributes(sr);
-                        processId = Integer.parseInt(exec.getOrDefault("ProcessID", "-1"));
-                        threadId = Integer.parseInt(exec.getOrDefault("ThreadID", "-1"));
-                        break;
-                    case "Channel":
-                        channel = parseStringText(sr);
-                        break;
-                    case "Computer":
-                        computer = parseStringText(sr);
-                        break;
-                    case "EventData":
-                        if (eventId == 4624 || eventId == 4634) {
-                            eventData = parseEventData(sr);
-                        }
-                        break;
-                    default:
-                        break;
-                }
-            }
-        }
-
-        Event event;
-        switch (eventId) {
-            case 4624:
-                event = new LogonEvent(eventId, version, level, task, opcode, keywords, timeCreated,
-                        eventRecordId, activityId, processId, threadId, channel, computer, eventData);
-                break;
-            case 4634:
-                event = new LogoffEvent(eventId, version, level, task, opcode, keywords, timeCreated,
-                        eventRecordId, activityId, processId, threadId, channel, computer, eventData);
-                break;
-            default:
-                event = new Event(eventId, version, level, task, opcode, keywords, timeCreated,
-                        eventRecordId, activityId, processId, threadId, channel, computer);
-                break;
-        }
-
-        sr.close();
-
-        return event;
-    }
-
-    private static int parseIntegerText(XMLStreamReader sr) throws XMLStreamException {
-        assert sr.getEventType() == START_ELEMENT;
-        int eventType = sr.next();
-        assert eventType == CHARACTERS;
-        String text = sr.getText();
-        int value = Integer.parseInt(text);
-        sr.next();
-        assert sr.getEventType() == END_ELEMENT;
-        return value;
+        return event(reader, EventDecoderRegistry.getDefault());
     }
 
-    private static Map<String, String> parseAttributes(XMLStreamReader sr) throws XMLStreamException {
-        Map<String, String> exec = new HashMap<>();
-        assert sr.getEventType() == START_ELEMENT;
-        for(int i=0; i < sr.getAttributeCount(); i++) {
-            exec.put(sr.getAttributeLocalName(i), sr.getAttributeValue(i));
-        }
-        sr.next();
-        assert sr.getEventType() == END_ELEMENT;
-        return exec;
+    public static Event event(Reader reader, EventDecoderRegistry registry) throws XMLStreamException {
+        return event(reader, registry, EventProjection.ALL);
     }
 
-    private static String parseStringText(XMLStreamReader sr) throws XMLStreamException {
-        assert sr.getEventType() == START_ELEMENT;
-        int eventType = sr.next();
-        assert eventType == CHARACTERS;
-        String text = sr.getText();
-        sr.next();
-        assert sr.getEventType() == END_ELEMENT;
-        return text;
-    }
+    public static Event event(Reader reader, EventDecoderRegistry registry, EventProjection projection)
+            throws XMLStreamException {
+        EventBuilder builder = new EventBuilder(registry, projection);
+        StringBuilder text = new StringBuilder();
 
-    private static Map<String, String > parseEventData(XMLStreamReader sr) throws XMLStreamException {
-        Map<String, String> eventData = new HashMap<>();
+        XMLStreamReader sr = XMLInputFactory.newInstance().createXMLStreamReader(reader);
         while (sr.hasNext()) {
             int eventType = sr.next();
-            if (eventType == START_ELEMENT && sr.getLocalName().equals("Data")) {
-                String attribute = sr.getAttributeValue(0);
-                eventType = sr.next();
-                assert eventType == CHARACTERS;
-                String value = sr.getText();
-                eventData.put(attribute, value);
-            } else if (eventType == END_ELEMENT && sr.getLocalName().equals("EventData")) {
-                break;
+            switch (eventType) {
+                case START_ELEMENT:
+                    text.setLength(0);
+                    builder.startElement(sr.getLocalName());
+                    for(int i=0; i < sr.getAttributeCount(); i++) {
+                        builder.attribute(sr.getAttributeLocalName(i), sr.getAttributeValue(i));
+                    }
+                    break;
+                case CHARACTERS:
+                    text.append(sr.getText());
+                    break;
+                case END_ELEMENT:
+                    if (text.length() > 0) {
+                        builder.text(text.toString());
+                        text.setLength(0);
+                    }
+                    builder.endElement();
+                    break;
+                default:
+                    break;
             }
         }
-        assert sr.getEventType() == END_ELEMENT;
-        return eventData;
+        sr.close();
+
+        return builder.build();
     }
 
 }
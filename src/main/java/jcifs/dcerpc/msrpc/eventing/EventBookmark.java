@@ -0,0 +1,116 @@
+/**
+ * Copyright 2020 Jitendra Kotamraju.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcifs.dcerpc.msrpc.eventing;
+
+import jcifs.util.Encdec;
+
+import java.util.Arrays;
+
+/**
+ * 2.2.16 Bookmark of an event record: the record number of the event in each channel
+ * of the query. Its xml form is what EvtRpcRegisterRemoteSubscription takes to start
+ * a subscription after the event (EvtSubscribeStartAfterBookmark).
+ *
+ * @author Jitendra Kotamraju
+ */
+public class EventBookmark {
+    private final long[] recordIds;
+    private final int currentChannel;
+    private final boolean reverse;
+
+    EventBookmark(long[] recordIds, int currentChannel, boolean reverse) {
+        this.recordIds = recordIds;
+        this.currentChannel = currentChannel;
+        this.reverse = reverse;
+    }
+
+    // BookmarkSize, HeaderSize, ChannelSize, CurrentChannel, ReadDirection, RecordIdsOffset, LogRecordNumbers
+    static EventBookmark decode(byte[] buf, int offset) {
+        int channels = Encdec.dec_uint32le(buf, offset + 8);
+        int currentChannel = Encdec.dec_uint32le(buf, offset + 12);
+        int readDirection = Encdec.dec_uint32le(buf, offset + 16);
+        int recordIdsOffset = Encdec.dec_uint32le(buf, offset + 20);
+        long[] recordIds = new long[channels];
+        for (int i = 0; i < channels; i++) {
+            recordIds[i] = Encdec.dec_uint64le(buf, offset + recordIdsOffset + 8 * i);
+        }
+        return new EventBookmark(recordIds, currentChannel, readDirection != 0);
+    }
+
+    /**
+     * @return record number of the event in its channel
+     */
+    public long recordId() {
+        return recordIds[currentChannel];
+    }
+
+    /**
+     * @return record numbers of the bookmark, one per channel of the query
+     */
+    public long[] recordIds() {
+        return recordIds.clone();
+    }
+
+    // Whether the event is past the other bookmark in the event's channel, in the read direction
+    boolean after(EventBookmark other) {
+        if (currentChannel >= other.recordIds.length) {
+            return true;
+        }
+        long otherRecordId = other.recordIds[currentChannel];
+        return reverse ? recordId() < otherRecordId : recordId() > otherRecordId;
+    }
+
+    /**
+     * Bookmark xml as used by the Windows Event Log API
+     *
+     * @param channels names of the query's channels, in the order of the record numbers
+     * @return xml of the bookmark
+     */
+    public String xml(String... channels) {
+        if (channels.length < recordIds.length) {
+            throw new IllegalArgumentException("channels=" + Arrays.toString(channels) + " for "
+                    + recordIds.length + " record numbers");
+        }
+        StringBuilder xml = new StringBuilder(reverse ? "<BookmarkList Direction='backward'>" : "<BookmarkList>");
+        for (int i = 0; i < recordIds.length; i++) {
+            xml.append("<Bookmark Channel='");
+            escape(channels[i], xml);
+            xml.append("' RecordId='").append(recordIds[i]).append('\'');
+            if (i == currentChannel) {
+                xml.append(" IsCurrent='true'");
+            }
+            xml.append("/>");
+        }
+        return xml.append("</BookmarkList>").toString();
+    }
+
+    private static void escape(String value, StringBuilder xml) {
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            switch (ch) {
+                case '&': xml.append("&amp;"); break;
+                case '<': xml.append("&lt;"); break;
+                case '\'': xml.append("&apos;"); break;
+                default: xml.append(ch); break;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "(recordIds=" + Arrays.toString(recordIds) + ", currentChannel=" + currentChannel + ")";
+    }
+}
@@ -0,0 +1,230 @@
+/**
+ * Copyright 2020 Jitendra Kotamraju.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcifs.dcerpc.msrpc.eventing;
+
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/*
+ * Builds an Event from a stream of element, attribute and text callbacks. The callbacks
+ * come either from a StAX parser (Event#event(Reader)) or directly from a BinXml tree
+ * (BinXmlParser#event()), so both paths produce the same Event.
+ *
+ * @author Jitendra Kotamraju
+ */
+class EventBuilder {
+    private final EventDecoderRegistry registry;
+    private final EventProjection projection;
+    private final Deque<String> elements = new ArrayDeque<>();
+
+    private String provider;
+
+    private int eventId = -1;
+    private int version = -1;
+    private int level = -1;
+    private int task = -1;
+    private int opcode = -1;
+    private String keywords;
+    private Object timeCreated;         // String or ValueEntry
+    private int eventRecordId = -1;
+    private String activityId;
+    private int processId = -1;
+    private int threadId = -1;
+    private String channel;
+    private String computer;
+
+    // EventData of the event's decoder, position of the current <Data>
+    private EventDecoderRegistry.Registration decoder;
+    private EventData eventData;
+    private boolean inEventData;
+    private int dataPosition = -1;
+
+    EventBuilder(EventDecoderRegistry registry, EventProjection projection) {
+        this.registry = registry;
+        this.projection = projection;
+    }
+
+    void startElement(String name) {
+        elements.push(name);
+        switch (name) {
+            case "EventData":
+                decoder = registry.lookup(provider, eventId, version);
+                if (decoder != null) {
+                    eventData = new EventData(decoder.names.length);
+                    inEventData = true;
+                }
+                break;
+            case "Data":
+                dataPosition = -1;
+                break;
+            default:
+                break;
+        }
+    }
+
+    void attribute(String name, String value) {
+        onAttribute(name, value);
+    }
+
+    // Substituted value, formatted only if it is kept
+    void attribute(String name, BinXmlParser.ValueEntry value) {
+        onAttribute(name, value);
+    }
+
+    // character data of the current element
+    void text(String text) {
+        onText(text);
+    }
+
+    // Substituted character data of the current element
+    void text(BinXmlParser.ValueEntry value) {
+        if (!value.isEmptyString()) {
+            onText(value);
+        }
+    }
+
+    // value is either a String or a ValueEntry
+    private void onAttribute(String name, Object value) {
+        switch (elements.peek()) {
+            case "Provider":
+                if (name.equals("Name")) {
+                    provider = string(value);
+                }
+                break;
+            case "TimeCreated":
+                if (name.equals("SystemTime")) {
+                    timeCreated = value;
+                }
+                break;
+            case "Correlation":
+                if (name.equals("ActivityID")) {
+                    activityId = string(value);
+                }
+                break;
+            case "Execution":
+                if (name.equals("ProcessID")) {
+                    processId = number(value);
+                } else if (name.equals("ThreadID")) {
+                    threadId = number(value);
+                }
+                break;
+            case "Data":
+                if (inEventData && name.equals("Name")) {
+                    String dataName = string(value);
+                    dataPosition = projection.contains(dataName) ? decoder.position(dataName) : -1;
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    // value is either a String or a ValueEntry
+    private void onText(Object text) {
+        switch (elements.peek()) {
+            case "EventID":
+                eventId = number(text);
+                break;
+            case "Version":
+                version = number(text);
+                break;
+            case "Level":
+                level = number(text);
+                break;
+            case "Task":
+                task = number(text);
+                break;
+            case "Opcode":
+                opcode = number(text);
+                break;
+            case "Keywords":
+                keywords = string(text);
+                break;
+            case "EventRecordID":
+                eventRecordId = number(text);
+                break;
+            case "Channel":
+                channel = string(text);
+                break;
+            case "Computer":
+                computer = string(text);
+                break;
+            case "Data":
+                if (inEventData && dataPosition != -1) {
+                    eventData.set(dataPosition, text);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static String string(Object value) {
+        return value instanceof BinXmlParser.ValueEntry
+                ? ((BinXmlParser.ValueEntry) value).text()
+                : (String) value;
+    }
+
+    private static int number(Object value) {
+        if (value instanceof BinXmlParser.ValueEntry && ((BinXmlParser.ValueEntry) value).isNumber()) {
+            return (int) ((BinXmlParser.ValueEntry) value).longValue();
+        }
+        return Integer.parseInt(string(value));
+    }
+
+    private static long nanos(Object timeCreated) {
+        if (timeCreated instanceof BinXmlParser.ValueEntry && ((BinXmlParser.ValueEntry) timeCreated).isFileTime()) {
+            return ((BinXmlParser.ValueEntry) timeCreated).fileTimeNanos();
+        }
+        try {
+            Instant instant = Instant.parse(string(timeCreated));
+            return instant.getEpochSecond() * 1_000_000_000L + instant.getNano();
+        } catch (DateTimeParseException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    // Decoder of the EventData that is started, or null if the EventData is not needed
+    EventDecoderRegistry.Registration eventDataDecoder() {
+        return inEventData ? decoder : null;
+    }
+
+    EventProjection projection() {
+        return projection;
+    }
+
+    // EventData value by its position, when the names are already bound to values
+    void data(int position, Object value) {
+        eventData.set(position, value);
+    }
+
+    void endElement() {
+        String name = elements.pop();
+        if (name.equals("EventData")) {
+            inEventData = false;
+        }
+    }
+
+    Event build() {
+        String timeCreated = this.timeCreated == null ? null : string(this.timeCreated);
+        long timeCreatedNanos = this.timeCreated == null ? Long.MIN_VALUE : nanos(this.timeCreated);
+        Event event = new Event(eventId, version, level, task, opcode, keywords, timeCreated, timeCreatedNanos,
+                eventRecordId, activityId, processId, threadId, channel, computer);
+        return eventData != null ? decoder.decoder.decode(event, eventData) : event;
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright 2020 Jitendra Kotamraju.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcifs.dcerpc.msrpc.eventing;
+
+/**
+ * Positional EventData values of a record, as declared by {@link EventDecoder#names()}.
+ * Substituted values are formatted only when they are accessed.
+ *
+ * @author Jitendra Kotamraju
+ */
+public final class EventData {
+    private final Object[] values;      // String or ValueEntry, null if not present
+
+    EventData(int size) {
+        values = new Object[size];
+    }
+
+    void set(int index, Object value) {
+        values[index] = value;
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    /**
+     * @return value as it appears in xml, or null if it is not present
+     */
+    public String string(int index) {
+        Object value = values[index];
+        return value instanceof BinXmlParser.ValueEntry
+                ? ((BinXmlParser.ValueEntry) value).text()
+                : (String) value;
+    }
+
+    /**
+     * @return value as an int, or -1 if it is not present or not a number
+     */
+    public int intValue(int index) {
+        return (int) longValue(index);
+    }
+
+    /**
+     * @return value as a long (hex values like 0x3e7 too), or -1 if it is not present
+     *         or not a number
+     */
+    public long longValue(int index) {
+        Object value = values[index];
+        if (value instanceof BinXmlParser.ValueEntry && ((BinXmlParser.ValueEntry) value).isNumber()) {
+            return ((BinXmlParser.ValueEntry) value).longValue();
+        }
+        String str = string(index);
+        if (str == null) {
+            return -1;
+        }
+        try {
+            return str.startsWith("0x")
+                    ? Long.parseUnsignedLong(str.substring(2), 16)
+                    : Long.parseLong(str);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/**
+ * Copyright 2020 Jitendra Kotamraju.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcifs.dcerpc.msrpc.eventing;
+
+import java.util.function.BiFunction;
+
+/**
+ * Decodes the EventData of an event to a typed Event. The decoder declares the
+ * EventData names it uses, and gets their values in the same positions. So the
+ * names are bound to substitution values only once per template, and a record is
+ * decoded without any name lookups.
+ *
+ * @see EventDecoderRegistry
+ * @author Jitendra Kotamraju
+ */
+public interface EventDecoder {
+
+    /**
+     * @return names of {@code <EventData><Data Name="..."/></EventData>} values, the
+     *         position of a name is the position of its value in EventData
+     */
+    String[] names();
+
+    /**
+     * @param system event with only the System properties
+     * @param data values of names() in the same positions
+     * @return typed event
+     */
+    Event decode(Event system, EventData data);
+
+    static EventDecoder of(String[] names, BiFunction<Event, EventData, Event> decoder) {
+        return new EventDecoder() {
+            @Override
+            public String[] names() {
+                return names;
+            }
+
+            @Override
+            public Event decode(Event system, EventData data) {
+                return decoder.apply(system, data);
+            }
+        };
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright 2020 Jitendra Kotamraju.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcifs.dcerpc.msrpc.eventing;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps (provider, event id, version) to an {@link EventDecoder}. Events that don't
+ * have a decoder are decoded to a plain {@link Event}, and their EventData is not
+ * decoded at all.
+ *
+ * <p>The default registry has decoders for these Microsoft-Windows-Security-Auditing
+ * events: 4624, 4625, 4634, 4648, 4768, 4776
+ *
+ * @author Jitendra Kotamraju
+ */
+public class EventDecoderRegistry {
+    public static final String SECURITY_AUDITING = "Microsoft-Windows-Security-Auditing";
+
+    private static final EventDecoderRegistry DEFAULT = new EventDecoderRegistry();
+    static {
+        DEFAULT.register(SECURITY_AUDITING, 4624, -1, EventDecoder.of(LogonEvent.NAMES, LogonEvent::new));
+        DEFAULT.register(SECURITY_AUDITING, 4625, -1, EventDecoder.of(LogonFailedEvent.NAMES, LogonFailedEvent::new));
+        DEFAULT.register(SECURITY_AUDITING, 4634, -1, EventDecoder.of(LogoffEvent.NAMES, LogoffEvent::new));
+        DEFAULT.register(SECURITY_AUDITING, 4648, -1, EventDecoder.of(ExplicitLogonEvent.NAMES, ExplicitLogonEvent::new));
+        DEFAULT.register(SECURITY_AUDITING, 4768, -1, EventDecoder.of(KerberosTicketEvent.NAMES, KerberosTicketEvent::new));
+        DEFAULT.register(SECURITY_AUDITING, 4776, -1, EventDecoder.of(CredentialValidationEvent.NAMES, CredentialValidationEvent::new));
+    }
+
+    // registrations of an event id, more specific ones come first
+    private final Map<Integer, Registration[]> registrations = new ConcurrentHashMap<>();
+
+    public static EventDecoderRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Registers a decoder, replacing any decoder of the same (provider, eventId, version)
+     *
+     * @param provider provider's Name, or null for any provider
+     * @param eventId event id
+     * @param version event version, or -1 for any version
+     * @param decoder decoder of the EventData
+     */
+    public synchronized void register(String provider, int eventId, int version, EventDecoder decoder) {
+        Registration registration = new Registration(provider, version, decoder);
+        List<Registration> list = new ArrayList<>();
+        for (Registration r : registrations.getOrDefault(eventId, new Registration[0])) {
+            if (r.version != version || !Objects.equals(r.provider, provider)) {
+                list.add(r);
+            }
+        }
+        list.add(registration);
+        list.sort(Comparator.comparingInt(Registration::specificity).reversed());
+        registrations.put(eventId, list.toArray(new Registration[0]));
+    }
+
+    // Most specific decoder of the event, or null
+    Registration lookup(String provider, int eventId, int version) {
+        Registration[] candidates = registrations.get(eventId);
+        if (candidates != null) {
+            for (Registration r : candidates) {
+                if ((r.version == -1 || r.version == version)
+                        && (r.provider == null || r.provider.equals(provider))) {
+                    return r;
+                }
+            }
+        }
+        return null;
+    }
+
+    static final class Registration {
+        final String provider;
+        final int version;
+        final EventDecoder decoder;
+        final String[] names;
+        private final Map<String, Integer> positions = new HashMap<>();
+
+        Registration(String provider, int version, EventDecoder decoder) {
+            this.provider = provider;
+            this.version = version;
+            this.decoder = decoder;
+            this.names = decoder.names().clone();
+            for (int i = 0; i < names.length; i++) {
+                positions.put(names[i], i);
+            }
+        }
+
+        private int specificity() {
+            return (version != -1 ? 2 : 0) + (provider != null ? 1 : 0);
+        }
+
+        // position of an EventData name, or -1 if the decoder doesn't use it
+        int position(String name) {
+            Integer position = positions.get(name);
+            return position == null ? -1 : position;
+        }
+    }
+}
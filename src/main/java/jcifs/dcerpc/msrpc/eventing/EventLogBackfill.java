@@ -0,0 +1,388 @@
+/**
+ * Copyright 2020 Jitendra Kotamraju.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcifs.dcerpc.msrpc.eventing;
+
+import jcifs.util.ThreadFactories;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static jcifs.dcerpc.msrpc.eventing.even6.MAX_RPC_RECORD_COUNT;
+
+/**
+ * Reads a range of the existing events of an event log (by EventRecordID or by
+ * TimeCreated) with many queries in parallel. The range is split into shards of
+ * equal width, and each shard is an XPath-bounded query that is read by an
+ * EventLogReader on its own session, so on its own connection. At most
+ * maxConnections shards are read at the same time.
+ *
+ * In the ordered mode (by default), the events are delivered in the order of the
+ * shards, and a shard's batches wait in a bounded buffer till the shards before it are
+ * delivered. Otherwise, the batches are delivered as they are read; watermark() tells
+ * the position (record id, or TimeCreated nanos) below which all the events of the
+ * range are delivered. The event callback is never called concurrently.
+ *
+ * With a checkpoint store, the bookmark of the last delivered event of every shard is
+ * saved after its batch is delivered. Running the same backfill again resumes every
+ * shard after its saved bookmark, and skips the shards that are complete.
+ *
+ * <pre>
+ *     EventLogBackfill backfill = EventLogBackfill.ofTimeCreated("Security", from, to);
+ *     backfill.setShards(30);
+ *     backfill.setMaxConnections(4);
+ *     backfill.setCheckpointStore(store);
+ *     backfill.run(() -> new EventLogSession(host, domain, user, password), callback);
+ * </pre>
+ *
+ * @author Jitendra Kotamraju
+ */
+public class EventLogBackfill {
+    private static final AtomicInteger backfillNo = new AtomicInteger();
+    private static final Pattern RECORD_ID = Pattern.compile("RecordId='(\\d+)'");
+    private static final int BUFFERED_BATCHES = 4;          // per shard in the ordered mode
+    private static final List<EventRecord> END_OF_SHARD = new ArrayList<>();
+
+    private final String path;
+    private final boolean byTime;
+    private final long from;
+    private final long to;
+
+    private String filter;
+    private int shards = 8;
+    private int maxConnections = 4;
+    private boolean ordered = true;
+    private int batchSize = MAX_RPC_RECORD_COUNT;
+    private EventLogCheckpointStore checkpointStore;
+
+    private final ReentrantLock deliverLock = new ReentrantLock();
+    private Shard[] running;
+    private volatile boolean stopped;
+    private volatile long watermark;
+
+    private EventLogBackfill(String path, boolean byTime, long from, long to) {
+        if (from >= to) {
+            throw new IllegalArgumentException("Empty range [" + from + ", " + to + ")");
+        }
+        this.path = path;
+        this.byTime = byTime;
+        this.from = from;
+        this.to = to;
+        this.watermark = from;
+    }
+
+    /**
+     * @param path name of the event log
+     * @param from first EventRecordID of the range
+     * @param to EventRecordID after the range
+     * @return backfill of the events with EventRecordID in [from, to)
+     */
+    public static EventLogBackfill ofRecordIds(String path, long from, long to) {
+        return new EventLogBackfill(path, false, from, to);
+    }
+
+    /**
+     * @param path name of the event log
+     * @param from start of the range
+     * @param to end of the range, exclusive
+     * @return backfill of the events with TimeCreated in [from, to)
+     */
+    public static EventLogBackfill ofTimeCreated(String path, Instant from, Instant to) {
+        return new EventLogBackfill(path, true, nanos(from), nanos(to));
+    }
+
+    /**
+     * Sets a condition on the System properties, in addition to the range
+     *
+     * @param filter XPath condition within System[], for e.g. "EventID=4624 or EventID=4625"
+     */
+    public void setFilter(String filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * @param shards number of queries the range is split into, 8 by default
+     */
+    public void setShards(int shards) {
+        this.shards = shards;
+    }
+
+    /**
+     * @param maxConnections number of shards that are read at the same time, 4 by default
+     */
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    /**
+     * @param ordered whether the events are delivered in the order of the range, true by default
+     */
+    public void setOrdered(boolean ordered) {
+        this.ordered = ordered;
+    }
+
+    /**
+     * @param records number of records in a batch, MAX_RPC_RECORD_COUNT (1024) by default
+     */
+    public void setBatchSize(int records) {
+        this.batchSize = records;
+    }
+
+    /**
+     * @param store store of the shards' progress, for e.g. FileCheckpointStore
+     */
+    public void setCheckpointStore(EventLogCheckpointStore store) {
+        this.checkpointStore = store;
+    }
+
+    /**
+     * @return record id, or TimeCreated as nanoseconds since 1970-01-01T00:00:00Z,
+     *         below which all the events of the range are delivered
+     */
+    public long watermark() {
+        return watermark;
+    }
+
+    /**
+     * Reads the range, and returns when all of its events are delivered
+     *
+     * @param sessions creates the session of a shard, a new one for every shard
+     * @param eventCallback a callback to receive the events
+     * @throws IOException if a shard cannot be read, the other shards are stopped
+     */
+    public void run(Supplier<EventLogSession> sessions, Consumer<List<EventRecord>> eventCallback)
+            throws IOException {
+        stopped = false;
+        running = new Shard[shards];
+        long width = (to - from + shards - 1) / shards;
+        for (int i = 0; i < shards; i++) {
+            long start = Math.min(to, from + i * width);
+            running[i] = new Shard(i, start, Math.min(to, start + width));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(maxConnections,
+                ThreadFactories.newThreadFactory("EventLogBackfill-" + backfillNo.getAndIncrement(), true));
+        try {
+            List<Future<?>> reads = new ArrayList<>();
+            for (Shard shard : running) {
+                reads.add(executor.submit(() -> {
+                    read(shard, sessions, eventCallback);
+                    return null;
+                }));
+            }
+            if (ordered) {
+                for (Shard shard : running) {
+                    deliverInOrder(shard, eventCallback);
+                }
+            }
+            for (Future<?> read : reads) {
+                read.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof UncheckedIOException ? e.getCause().getCause() : e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new EventLogException(cause);
+        } finally {
+            stopped = true;
+            executor.shutdownNow();
+        }
+    }
+
+    // Reads a shard in a worker, and hands off its batches (or delivers them if unordered)
+    private void read(Shard shard, Supplier<EventLogSession> sessions, Consumer<List<EventRecord>> eventCallback)
+            throws IOException, InterruptedException {
+        if (shard.done) {
+            shard.buffer.put(END_OF_SHARD);
+            return;
+        }
+        try {
+            EventLogSession session = sessions.get();
+            shard.host = session.getServer();
+            if (checkpointStore != null) {
+                if (checkpointStore.load(shard.host, shard.key() + "#done") != null) {
+                    shard.done = true;
+                    updateWatermark();
+                    return;
+                }
+                String bookmark = checkpointStore.load(shard.host, shard.key());
+                if (bookmark != null) {
+                    Matcher matcher = RECORD_ID.matcher(bookmark);
+                    if (matcher.find()) {
+                        shard.resumeAfter = Long.parseLong(matcher.group(1));
+                    }
+                }
+            }
+
+            EventLogQuery query = new EventLogQuery(path, EventLogQuery.PathType.LogName, shard.xpath(), session, false);
+            try (EventLogReader reader = new EventLogReader(query)) {
+                reader.setBatchSize(batchSize);
+                List<EventRecord> batch;
+                while (!stopped && !(batch = reader.readBatch()).isEmpty()) {
+                    if (ordered) {
+                        shard.buffer.put(batch);
+                    } else {
+                        deliver(shard, batch, eventCallback);
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            shard.failure = e;
+            throw e;
+        } finally {
+            if (ordered) {
+                shard.buffer.put(END_OF_SHARD);     // even if the session or the checkpoint isn't there
+            }
+        }
+        if (!ordered && !stopped) {
+            completed(shard);
+        }
+    }
+
+    // Ordered mode: delivers a shard's batches in the caller's thread, after the shards before it
+    private void deliverInOrder(Shard shard, Consumer<List<EventRecord>> eventCallback)
+            throws IOException, InterruptedException {
+        List<EventRecord> batch;
+        while ((batch = shard.buffer.take()) != END_OF_SHARD) {
+            deliver(shard, batch, eventCallback);
+        }
+        if (shard.failure instanceof IOException) {
+            throw (IOException) shard.failure;
+        } else if (shard.failure != null) {
+            throw (RuntimeException) shard.failure;
+        }
+        if (!shard.done) {
+            completed(shard);
+        }
+    }
+
+    private void deliver(Shard shard, List<EventRecord> batch, Consumer<List<EventRecord>> eventCallback)
+            throws IOException {
+        deliverLock.lock();
+        try {
+            eventCallback.accept(batch);
+            EventRecord last = batch.get(batch.size() - 1);
+            shard.position = byTime ? last.system().timeCreated() : last.recordId + 1;
+            if (checkpointStore != null) {
+                checkpointStore.save(shard.host, shard.key(), last.bookmark().xml(path));
+            }
+            updateWatermark();
+        } finally {
+            deliverLock.unlock();
+        }
+    }
+
+    private void completed(Shard shard) throws IOException {
+        deliverLock.lock();
+        try {
+            shard.done = true;
+            if (checkpointStore != null) {
+                checkpointStore.save(shard.host, shard.key() + "#done", "true");
+                checkpointStore.flush();
+            }
+            updateWatermark();
+        } finally {
+            deliverLock.unlock();
+        }
+    }
+
+    // Start of the first shard that is not done, or the position of its delivered events
+    private void updateWatermark() {
+        deliverLock.lock();
+        try {
+            long mark = to;
+            for (Shard shard : running) {
+                if (!shard.done) {
+                    mark = Math.min(mark, Math.max(shard.start, shard.position));
+                }
+            }
+            watermark = Math.max(watermark, mark);
+        } finally {
+            deliverLock.unlock();
+        }
+    }
+
+    private static long nanos(Instant instant) {
+        return instant.getEpochSecond() * 1_000_000_000L + instant.getNano();
+    }
+
+    private static String systemTime(long nanos) {
+        return Instant.ofEpochSecond(Math.floorDiv(nanos, 1_000_000_000L), Math.floorMod(nanos, 1_000_000_000L))
+                .toString();
+    }
+
+    private final class Shard {
+        final int no;
+        final long start;
+        final long end;
+        final BlockingQueue<List<EventRecord>> buffer = new ArrayBlockingQueue<>(BUFFERED_BATCHES);
+        String host;
+        long resumeAfter = -1;          // record id of the saved bookmark
+        volatile long position;         // after the delivered events
+        volatile boolean done;
+        volatile Exception failure;
+
+        Shard(int no, long start, long end) {
+            this.no = no;
+            this.start = start;
+            this.end = end;
+            this.done = start == end;
+        }
+
+        // XPath condition of the shard's range
+        String range() {
+            return byTime
+                    ? "TimeCreated[@SystemTime>='" + systemTime(start) + "' and @SystemTime<'" + systemTime(end) + "']"
+                    : "EventRecordID>=" + start + " and EventRecordID<" + end;
+        }
+
+        String xpath() {
+            StringBuilder xpath = new StringBuilder("*[System[");
+            if (filter != null) {
+                xpath.append('(').append(filter).append(") and ");
+            }
+            xpath.append(range());
+            if (resumeAfter != -1) {
+                xpath.append(" and EventRecordID>").append(resumeAfter);
+            }
+            return xpath.append("]]").toString();
+        }
+
+        // Key of the shard's progress in the checkpoint store
+        String key() {
+            return path + "#" + no + "/" + shards + "#" + (filter == null ? "" : filter + "#") + range();
+        }
+    }
+}
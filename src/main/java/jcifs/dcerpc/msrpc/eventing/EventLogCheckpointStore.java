@@ -0,0 +1,57 @@
+/**
+ * Copyright 2020 Jitendra Kotamraju.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcifs.dcerpc.msrpc.eventing;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Keeps the bookmark of the last acknowledged event per host and channel, so that an
+ * EventLogWatcher resumes after it (EvtSubscribeStartAfterBookmark) when it is started
+ * again, for e.g. after a restart. An event is acknowledged when the event callback
+ * returns for its batch.
+ *
+ * @author Jitendra Kotamraju
+ * @see FileCheckpointStore
+ */
+public interface EventLogCheckpointStore extends Closeable {
+
+    /**
+     * @param host host of the event log
+     * @param channel channel (event log name) of the subscription
+     * @return bookmark xml of the last acknowledged event, or null if there is none
+     * @throws IOException if the store cannot be read
+     */
+    String load(String host, String channel) throws IOException;
+
+    /**
+     * Saves the bookmark of the last acknowledged event. A store may batch the saves,
+     * and they are durable after flush().
+     *
+     * @param host host of the event log
+     * @param channel channel (event log name) of the subscription
+     * @param bookmarkXml bookmark xml of the event
+     * @throws IOException if the store cannot be written
+     */
+    void save(String host, String channel, String bookmarkXml) throws IOException;
+
+    /**
+     * Makes the saved bookmarks durable
+     *
+     * @throws IOException if the store cannot be written
+     */
+    void flush() throws IOException;
+}
@@ -73,6 +73,10 @@ public class EventLogConnectionUtil implements AutoCloseable {
         watcher.setRequestedRecords(records);
     }
 
+    public void setRequestedRecords(int min, int max) {
+        watcher.setRequestedRecords(min, max);
+    }
+
     public ConnectionStatus testConnection(long timeout, TimeUnit unit) {
         ConnectionStatus status = STATUS_UNKNOWN;
 
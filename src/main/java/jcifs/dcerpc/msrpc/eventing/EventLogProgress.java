@@ -16,11 +16,20 @@
 package jcifs.dcerpc.msrpc.eventing;
 
 public class EventLogProgress {
-    public EventLogException connectionError;
-    public int lastEventRecordId;
-    public long lastSubscriptionTime;
-    public long lastPullTime;
-    public String lastEventTimeCreated;
+    public volatile EventLogException connectionError;
+    public volatile int lastEventRecordId;
+    public volatile long lastSubscriptionTime;
+    public volatile long lastPullTime;
+    public volatile String lastEventTimeCreated;
+    public volatile String lastBookmark;
+    public volatile EventLogException checkpointError;  // of the last save, retried with the next batch
+
+    // Reconnects of a watcher with a reconnect backoff
+    public volatile int outages;                // subscriptions lost
+    public volatile int reconnects;             // attempts to subscribe again
+    public volatile long lastOutageMillis;      // from the failure to the new subscription
+    public volatile long totalOutageMillis;
+    public volatile int skippedDuplicates;      // records already delivered before an outage
 
     public String toString() {
         return "(connectionError=" + connectionError +
@@ -28,6 +37,13 @@ public class EventLogProgress {
                 ", lastSubscriptionTime=" + lastSubscriptionTime +
                 ", lastPullTime=" + lastPullTime +
                 ", lastTimeCreated=" + lastEventTimeCreated +
+                ", lastBookmark=" + lastBookmark +
+                ", checkpointError=" + checkpointError +
+                ", outages=" + outages +
+                ", reconnects=" + reconnects +
+                ", lastOutageMillis=" + lastOutageMillis +
+                ", totalOutageMillis=" + totalOutageMillis +
+                ", skippedDuplicates=" + skippedDuplicates +
                 ")";
     }
 }
@@ -0,0 +1,339 @@
+/**
+ * Copyright 2020 Jitendra Kotamraju.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcifs.dcerpc.msrpc.eventing;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * Publishes the events of a query to subscribers, as in Reactive Streams. The subscriber's
+ * demand drives the subscription: a pull asks the server for no more records than the
+ * subscriber has requested and not yet received, and no pull is sent while there is no
+ * demand. So a slow subscriber throttles the RPC traffic, and the records it is not ready
+ * for stay on the server instead of piling up in memory.
+ *
+ * Every subscriber gets its own EventLogWatcher (subscription on the server), and its
+ * onNext is called in the watcher's thread. The Subscriber and Subscription interfaces
+ * have the same methods as the ones of java.util.concurrent.Flow (this library targets
+ * Java 8), so they are adapted to Flow or org.reactivestreams with a thin wrapper.
+ * A subscription fails with onError, and completes with onComplete only when the
+ * publisher is closed.
+ *
+ * <pre>
+ *     EventLogPublisher publisher = new EventLogPublisher(query);
+ *     publisher.subscribe(new EventLogPublisher.Subscriber() {
+ *         public void onSubscribe(EventLogPublisher.Subscription s) { s.request(100); }
+ *         ...
+ *     });
+ * </pre>
+ *
+ * @author Jitendra Kotamraju
+ */
+public class EventLogPublisher implements Closeable {
+    private final EventLogQuery query;
+    private final String bookmark;
+    private final boolean readExistingEvents;
+    private final List<EventSubscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    private int maxRequestedRecords = even6.MAX_RPC_RECORD_COUNT;
+    private Predicate<EventSystem> eventFilter;
+    private EventProjection projection = EventProjection.ALL;
+    private boolean push;
+    private EventLogCheckpointStore checkpointStore;
+    private long reconnectInitial;
+    private long reconnectMax;
+    private volatile boolean closed;
+
+    /**
+     * Receives the events of a subscription, same as java.util.concurrent.Flow.Subscriber
+     */
+    public interface Subscriber {
+        void onSubscribe(Subscription subscription);
+
+        void onNext(EventRecord record);
+
+        void onError(Throwable throwable);
+
+        void onComplete();
+    }
+
+    /**
+     * Demand of a subscriber, same as java.util.concurrent.Flow.Subscription
+     */
+    public interface Subscription {
+        /**
+         * Adds n records to the demand, Long.MAX_VALUE for an unbounded demand
+         *
+         * @param n number of records, positive
+         */
+        void request(long n);
+
+        /**
+         * Stops the subscription, closing its watcher. There may be a few more onNext
+         * calls for the records that are already being delivered.
+         */
+        void cancel();
+    }
+
+    /**
+     * @param query a query for the event subscriptions
+     */
+    public EventLogPublisher(EventLogQuery query) {
+        this(query, null, false);
+    }
+
+    /**
+     * @param query a query for the event subscriptions
+     * @param bookmark a starting position in the event log, or null
+     * @param readExistingEvents whether to read the events that already exist in the event log
+     * @see EventLogWatcher#EventLogWatcher(EventLogQuery, String, boolean, java.util.function.Consumer)
+     */
+    public EventLogPublisher(EventLogQuery query, String bookmark, boolean readExistingEvents) {
+        this.query = query;
+        this.bookmark = bookmark;
+        this.readExistingEvents = readExistingEvents;
+    }
+
+    /**
+     * Sets the ceiling of the records requested in a pull, a pull requests
+     * fewer records when the demand is smaller
+     *
+     * @param max ceiling of the requested records, MAX_RPC_RECORD_COUNT (1024) by default
+     * @see EventLogWatcher#setRequestedRecords(int, int)
+     */
+    public void setMaxRequestedRecords(int max) {
+        this.maxRequestedRecords = max;
+    }
+
+    /**
+     * @see EventLogWatcher#setEventFilter(Predicate)
+     */
+    public void setEventFilter(Predicate<EventSystem> eventFilter) {
+        this.eventFilter = eventFilter;
+    }
+
+    /**
+     * @see EventLogWatcher#setProjection(EventProjection)
+     */
+    public void setProjection(EventProjection projection) {
+        this.projection = projection;
+    }
+
+    /**
+     * @see EventLogWatcher#setPushMode(boolean)
+     */
+    public void setPushMode(boolean push) {
+        this.push = push;
+    }
+
+    /**
+     * @see EventLogWatcher#setCheckpointStore(EventLogCheckpointStore)
+     */
+    public void setCheckpointStore(EventLogCheckpointStore store) {
+        this.checkpointStore = store;
+    }
+
+    /**
+     * @see EventLogWatcher#setReconnectBackoff(long, long, TimeUnit)
+     */
+    public void setReconnectBackoff(long initial, long max, TimeUnit unit) {
+        this.reconnectInitial = unit.toMillis(initial);
+        this.reconnectMax = unit.toMillis(max);
+    }
+
+    /**
+     * Subscribes to the events of the query. The subscriber's onSubscribe is called
+     * in the calling thread, and the events are pulled as the subscriber requests them.
+     *
+     * @param subscriber subscriber of the events
+     */
+    public void subscribe(Subscriber subscriber) {
+        EventSubscription subscription = new EventSubscription(subscriber);
+        if (closed) {
+            subscriber.onSubscribe(subscription);
+            subscription.terminate(null);
+            return;
+        }
+
+        EventLogWatcher watcher = new EventLogWatcher(query, bookmark, readExistingEvents, subscription::onEvents);
+        watcher.setRequestedRecords(Math.min(EventLogWatcher.REQUESTED_RECORDS, maxRequestedRecords),
+                maxRequestedRecords);
+        watcher.setEventFilter(eventFilter);
+        watcher.setProjection(projection);
+        watcher.setPushMode(push);
+        watcher.setCheckpointStore(checkpointStore);
+        watcher.setReconnectBackoff(reconnectInitial, reconnectMax, TimeUnit.MILLISECONDS);
+        watcher.setDemand(subscription.demand);
+        subscription.watcher = watcher;
+        subscriptions.add(subscription);
+
+        subscriber.onSubscribe(subscription);
+        if (closed) {
+            subscription.terminate(null);       // closed meanwhile
+        } else {
+            watcher.start();
+        }
+    }
+
+    /**
+     * Closes the subscriptions, their subscribers get onComplete
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (EventSubscription subscription : subscriptions) {
+            subscription.terminate(null);
+        }
+    }
+
+    /*
+     * Records that a subscriber has requested and not yet received. The watcher thread
+     * waits for the demand before a pull, and requests no more records than it.
+     */
+    static final class Demand {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition requested = lock.newCondition();
+        private long outstanding;
+        private boolean cancelled;
+
+        void add(long n) {
+            lock.lock();
+            try {
+                outstanding = outstanding + n < 0 ? Long.MAX_VALUE : outstanding + n;     // capped
+                requested.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // a record is delivered
+        void consume() {
+            lock.lock();
+            try {
+                if (outstanding != Long.MAX_VALUE) {
+                    outstanding--;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void cancel() {
+            lock.lock();
+            try {
+                cancelled = true;
+                requested.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Waits till there is demand, and returns the records to pull, or 0 if cancelled
+        int await(int max) {
+            lock.lock();
+            try {
+                while (outstanding == 0 && !cancelled) {
+                    requested.awaitUninterruptibly();
+                }
+                return cancelled ? 0 : (int) Math.min(max, outstanding);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private final class EventSubscription implements Subscription {
+        private final Subscriber subscriber;
+        private final Demand demand = new Demand();
+        private final ReentrantLock signalLock = new ReentrantLock();     // signals are not concurrent
+        private volatile EventLogWatcher watcher;
+        private volatile boolean terminated;
+
+        EventSubscription(Subscriber subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                terminate(new IllegalArgumentException("request(" + n + "), should be positive"));
+            } else if (!terminated) {
+                demand.add(n);
+            }
+        }
+
+        @Override
+        public void cancel() {
+            if (!terminated) {
+                terminated = true;
+                stop();
+            }
+        }
+
+        // Event callback of the watcher
+        private void onEvents(List<EventRecord> records) {
+            signalLock.lock();
+            try {
+                for (EventRecord record : records) {
+                    if (terminated) {
+                        return;
+                    }
+                    if (record.exception != null) {
+                        terminate(record.exception);
+                        return;
+                    }
+                    demand.consume();
+                    subscriber.onNext(record);
+                }
+            } finally {
+                signalLock.unlock();
+            }
+        }
+
+        // onError, or onComplete for a null failure, unless the subscription is already over
+        private void terminate(Throwable failure) {
+            signalLock.lock();
+            try {
+                if (terminated) {
+                    return;
+                }
+                terminated = true;
+                stop();
+                if (failure != null) {
+                    subscriber.onError(failure);
+                } else {
+                    subscriber.onComplete();
+                }
+            } finally {
+                signalLock.unlock();
+            }
+        }
+
+        // the watcher is closed first, so its thread ends when the demand is cancelled
+        private void stop() {
+            subscriptions.remove(this);
+            if (watcher != null) {
+                watcher.close();
+            }
+            demand.cancel();
+        }
+    }
+}
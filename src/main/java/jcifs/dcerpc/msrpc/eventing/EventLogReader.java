@@ -0,0 +1,299 @@
+/**
+ * Copyright 2020 Jitendra Kotamraju.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcifs.dcerpc.msrpc.eventing;
+
+import jcifs.dcerpc.msrpc.eventing.even6.EvtRpcClose;
+import jcifs.dcerpc.msrpc.eventing.even6.EvtRpcQueryNext;
+import jcifs.dcerpc.msrpc.eventing.even6.EvtRpcRegisterLogQuery;
+import jcifs.util.ThreadFactories;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static jcifs.dcerpc.msrpc.eventing.even6.*;
+
+/**
+ * Reads the events of a query from an event log, or from an event log file on the
+ * remote computer (PathType.FilePath). The events are read from the oldest to the
+ * newest, or the other way if the query is in reverse direction. Unlike a watcher,
+ * the reader ends at the last event that matches the query.
+ *
+ * The events are fetched with EvtRpcQueryNext in batches of up to MAX_RPC_RECORD_COUNT
+ * records. With readahead (by default), the next batch is fetched on the session's
+ * pull connection while the current one is being read, so a bulk export doesn't wait
+ * a round trip for every batch. A reader is used by one thread at a time.
+ *
+ * <pre>
+ *     EventLogQuery query = new EventLogQuery("Security", LogName, "*", session, false);
+ *     try (EventLogReader reader = new EventLogReader(query)) {
+ *         reader.stream().forEach(record -> ...);
+ *     }
+ * </pre>
+ *
+ * @author Jitendra Kotamraju
+ */
+public class EventLogReader implements Iterable<EventRecord>, Closeable {
+    private static final AtomicInteger threadNo = new AtomicInteger();
+    private static final int QUERY_TIMEOUT = 15000;             // server's time limit of a batch
+    private static final int ERROR_NO_MORE_ITEMS = 259;
+
+    private final EventLogQuery query;
+    private int batchSize = MAX_RPC_RECORD_COUNT;
+    private boolean readahead = true;
+    private EventProjection projection = EventProjection.ALL;
+    private int queryTimeout = QUERY_TIMEOUT;
+
+    private EvtRpcRegisterLogQuery logQuery;
+    private ExecutorService fetcher;
+    private CompletableFuture<EvtRpcQueryNext> next;    // readahead of the next batch
+    private List<EventRecord> batch = Collections.emptyList();
+    private int position;
+    private boolean done;
+    private boolean closed;
+
+    /**
+     * Initializes a new instance of the EventLogReader class by specifying an event query
+     *
+     * @param query the events to read, and the direction to read them in
+     */
+    public EventLogReader(EventLogQuery query) {
+        this.query = query;
+        query.session.attach();
+    }
+
+    /**
+     * @param records number of records in a batch, MAX_RPC_RECORD_COUNT (1024) by default
+     */
+    public void setBatchSize(int records) {
+        if (records < 1 || records > MAX_RPC_RECORD_COUNT) {
+            String msg = String.format("Invalid batch size %d, should be within [1, %d]",
+                    records, MAX_RPC_RECORD_COUNT);
+            throw new IllegalArgumentException(msg);
+        }
+        this.batchSize = records;
+    }
+
+    /**
+     * @param readahead whether the next batch is fetched while the current one is read,
+     *                  true by default
+     */
+    public void setReadahead(boolean readahead) {
+        this.readahead = readahead;
+    }
+
+    /**
+     * Sets the EventData values that are decoded for typed events
+     *
+     * @param projection EventData values that are needed, EventProjection.ALL by default
+     */
+    public void setProjection(EventProjection projection) {
+        this.projection = projection;
+    }
+
+    /**
+     * Sets how long the server may take to return a batch (the timeOut of EvtRpcQueryNext).
+     * It is also the socket read timeout of the other requests, and a batch's read timeout
+     * is a second more than it.
+     *
+     * @param queryTimeout time limit of a batch at the server, in milliseconds, 15000 by default
+     */
+    public void setQueryTimeout(int queryTimeout) {
+        this.queryTimeout = queryTimeout;
+    }
+
+    /**
+     * Reads the next event
+     *
+     * @return the next event, or null if there are no more events
+     * @throws IOException if the events cannot be fetched
+     */
+    public EventRecord readEvent() throws IOException {
+        if (position == batch.size()) {
+            batch = readBatch();
+            position = 0;
+            if (batch.isEmpty()) {
+                return null;
+            }
+        }
+        return batch.get(position++);
+    }
+
+    /**
+     * Reads the next batch of events, the rest of the current batch if some of
+     * its events are already read with readEvent()
+     *
+     * @return the next events, or an empty list if there are no more events
+     * @throws IOException if the events cannot be fetched
+     */
+    public List<EventRecord> readBatch() throws IOException {
+        if (position < batch.size()) {
+            List<EventRecord> rest = batch.subList(position, batch.size());
+            position = batch.size();
+            return rest;
+        }
+        if (closed) {
+            throw new IOException("EventLogReader is closed");
+        }
+        if (done) {
+            return Collections.emptyList();
+        }
+        if (logQuery == null) {
+            register();
+        }
+
+        EvtRpcQueryNext pull = next != null ? await(next) : fetch();
+        next = null;
+        if (pull.retVal == ERROR_NO_MORE_ITEMS || pull.retVal == 0 && pull.numActualRecords == 0) {
+            done = true;
+            return Collections.emptyList();
+        }
+        if (pull.retVal != 0) {
+            throw new EventLogException("EvtRpcQueryNext return value = " + pull.retVal);
+        }
+        if (readahead) {
+            next = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return fetch();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, fetcher);
+        }
+
+        List<EventRecord> records = new ArrayList<>(pull.numActualRecords);
+        for (int i = 0; i < pull.numActualRecords; i++) {
+            records.add(new EventRecord(pull.resultBuffer, pull.eventDataIndices[i], pull.eventDataSizes[i],
+                    query.session.getTemplateCache(), projection));
+        }
+        return records;
+    }
+
+    private void register() throws IOException {
+        int flags = query.pathType == EventLogQuery.PathType.FilePath ? EvtQueryFilePath : EvtQueryChannelPath;
+        flags |= query.reverseDirection ? EvtReadNewestToOldest : EvtReadOldestToNewest;
+        logQuery = new EvtRpcRegisterLogQuery(query.path, query.query, flags);
+        query.session.sendPull(logQuery, queryTimeout);
+        if (logQuery.retVal != 0) {
+            throw new EventLogException("EvtRpcRegisterLogQuery return value = " + logQuery.retVal);
+        }
+        if (readahead) {
+            fetcher = Executors.newSingleThreadExecutor(
+                    r -> ThreadFactories.newThread(r, "EventLogReader-" + threadNo.getAndIncrement(), true));
+        }
+    }
+
+    private EvtRpcQueryNext fetch() throws IOException {
+        EvtRpcQueryNext pull = new EvtRpcQueryNext(logQuery.handle, batchSize, queryTimeout, 0);
+        query.session.sendPull(pull, queryTimeout + 1000);
+        return pull;
+    }
+
+    private static EvtRpcQueryNext await(CompletableFuture<EvtRpcQueryNext> next) throws IOException {
+        try {
+            return next.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof UncheckedIOException ? e.getCause().getCause() : e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new EventLogException(cause);
+        }
+    }
+
+    /**
+     * Iterates over the rest of the events, an IOException is thrown as UncheckedIOException
+     */
+    @Override
+    public Iterator<EventRecord> iterator() {
+        return new Iterator<EventRecord>() {
+            private EventRecord record;
+
+            @Override
+            public boolean hasNext() {
+                if (record == null) {
+                    try {
+                        record = readEvent();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                return record != null;
+            }
+
+            @Override
+            public EventRecord next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                EventRecord next = record;
+                record = null;
+                return next;
+            }
+        };
+    }
+
+    /**
+     * @return sequential stream of the rest of the events
+     */
+    public Stream<EventRecord> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator(),
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Closes the query, and the session if the reader is the last of its users
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (next != null) {
+            next.handle((pull, e) -> null).join();      // the readahead is done with the connection
+        }
+        if (fetcher != null) {
+            fetcher.shutdown();
+        }
+        if (logQuery != null) {
+            try {
+                query.session.sendPull(new EvtRpcClose(logQuery.handle), queryTimeout);
+            } catch (Exception e) {
+                // ignore
+            }
+        }
+        query.session.detach();
+    }
+}
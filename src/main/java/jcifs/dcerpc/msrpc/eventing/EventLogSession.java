@@ -15,13 +15,28 @@
  */
 package jcifs.dcerpc.msrpc.eventing;
 
+import jcifs.Config;
 import jcifs.dcerpc.*;
 import jcifs.dcerpc.msrpc.NtlmSecurityProvider;
+import jcifs.dcerpc.ndr.NdrBuffer;
 import jcifs.smb.NtlmPasswordAuthentication;
+import jcifs.util.ThreadFactories;
 
 import java.io.Closeable;
 import java.io.IOException;
-import java.net.SocketTimeoutException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 
 /*
  * Used to access the Event Log service on a remote computer so you can manage and gather
@@ -29,16 +44,40 @@ import java.net.SocketTimeoutException;
  *
  * Uses Windows NT LAN Manager (NTLM) authentication during RPC session
  *
+ * A session can be shared by the watchers of many event logs of the computer. They
+ * share the two authenticated connections: the pulls of the subscriptions take turns
+ * on the pull connection, and their waits are outstanding together on the wait connection.
+ *
  * @author Jitendra Kotamraju
  */
 public class EventLogSession implements Closeable {
+    private static final int MAX_PENDING_WAITS =
+            Config.getInt("jcifs.dcerpc.msrpc.eventing.maxPendingWaits", 16);
+
     private final String server;
     private final int port;
     private final boolean encrypted;
     private final NtlmPasswordAuthentication auth;
+    private final BinXmlTemplateCache templateCache;
 
+    // fair, so that the pulls of the subscriptions on this session take turns
+    private final ReentrantLock pullLock = new ReentrantLock(true);
     private DcerpcTcpHandle pullHandle;
+
+    // WaitAsync and NextAsync calls of all the subscriptions are outstanding on the wait
+    // connection at the same time, and its reader thread completes them by call id
+    private final ReentrantLock waitLock = new ReentrantLock();
+    private final Map<Integer, Pending> waitCalls = new HashMap<>();    // guarded by waitLock
     private DcerpcTcpHandle waitHandle;
+    private volatile long lastWaitResponse;     // System.nanoTime() of the last response on the wait connection
+    private final AtomicInteger users = new AtomicInteger();
+    private volatile boolean closed;
+
+    private final AtomicLong connects = new AtomicLong();
+    private final AtomicLong handshakeNanos = new AtomicLong();
+    private final AtomicLong waitReconnects = new AtomicLong();
+    private final AtomicLong idleWaits = new AtomicLong();
+    private final AtomicLong brokenPulls = new AtomicLong();
 
     private int connectionTimeout = -1;
     private int epmTimeout = -1;
@@ -79,6 +118,12 @@ public class EventLogSession implements Closeable {
         this.encrypted = encrypted;
 
         auth = new NtlmPasswordAuthentication(domain, user, password);
+        templateCache = new BinXmlTemplateCache(
+                Config.getInt("jcifs.dcerpc.msrpc.eventing.templateCacheSize", BinXmlTemplateCache.DEFAULT_MAX_SIZE));
+    }
+
+    public String getServer() {
+        return server;
     }
 
     public void setConnectionTimeout(int connectionTimeout) {
@@ -89,7 +134,18 @@ public class EventLogSession implements Closeable {
         this.epmTimeout = epmTimeout;
     }
 
+    /**
+     * BinXml templates of the events received in this session. The same template
+     * is shared by all the events of a kind, and is parsed only once.
+     *
+     * @return template cache of this session
+     */
+    public BinXmlTemplateCache getTemplateCache() {
+        return templateCache;
+    }
+
     void establishPullConnection() throws IOException {
+        long start = System.nanoTime();
         pullHandle = new DcerpcTcpHandle(server, port, "even6");
         pullHandle.setDcerpcSecurityProvider(new NtlmSecurityProvider(auth, encrypted));
         if (connectionTimeout != -1) {
@@ -101,26 +157,77 @@ public class EventLogSession implements Closeable {
         pullHandle.bind();
         DcerpcMessage auth3 = new Auth3();
         pullHandle.send(auth3);
+        connected(start);
     }
 
-    void establishWaitConnection() throws IOException {
-        int port = pullHandle.getPort();
-        waitHandle = new DcerpcTcpHandle(server, port, "even6");
-        waitHandle.setDcerpcSecurityProvider(new NtlmSecurityProvider(auth, encrypted));
-        waitHandle.setAssocGroup(pullHandle.getAssocGroup());   // associate pull and wait connections
+    private void establishWaitConnection() throws IOException {
+        waitHandle = openWaitConnection();
+        lastWaitResponse = System.nanoTime();   // a new connection isn't silent yet
+
+        DcerpcTcpHandle handle = waitHandle;
+        ThreadFactories.newThread(() -> readWaitResponses(handle), "EventLogSession-" + server + "-wait", true)
+                .start();
+    }
+
+    // Connects the wait connection, in the association group of the pull connection
+    DcerpcTcpHandle openWaitConnection() throws IOException {
+        int port;
+        int assocGroup;
+        pullLock.lock();
+        try {
+            if (pullHandle == null) {
+                establishPullConnection();
+            }
+            port = pullHandle.getPort();
+            assocGroup = pullHandle.getAssocGroup();
+        } finally {
+            pullLock.unlock();
+        }
+
+        long start = System.nanoTime();
+        DcerpcTcpHandle handle = new DcerpcTcpHandle(server, port, "even6");
+        handle.setDcerpcSecurityProvider(new NtlmSecurityProvider(auth, encrypted));
+        handle.setAssocGroup(assocGroup);       // associate pull and wait connections
         if (connectionTimeout != -1) {
-            waitHandle.setConnectTimeout(connectionTimeout);
+            handle.setConnectTimeout(connectionTimeout);
         }
         if (epmTimeout != -1) {
-            waitHandle.setSoTimeout(epmTimeout);
+            handle.setSoTimeout(epmTimeout);
         }
-        waitHandle.bind();
+        handle.bind();
         DcerpcMessage auth3 = new Auth3();
-        waitHandle.send(auth3);
+        handle.send(auth3);
+        handle.setSoTimeout(0);                 // the reader blocks until a response, the waiters time out
+        connected(start);
+        return handle;
+    }
+
+    private void connected(long start) {
+        connects.incrementAndGet();
+        handshakeNanos.addAndGet(System.nanoTime() - start);
+    }
+
+    // A watcher that uses this session, the connections are shared by all of them
+    void attach() {
+        users.incrementAndGet();
+        closed = false;
     }
 
+    // The session is closed when the last of its watchers is closed
+    void detach() {
+        if (users.decrementAndGet() == 0) {
+            close();
+        }
+    }
+
+    /**
+     * Closes the connections of the session. The watchers close the session when the
+     * last of them is closed, so this is needed only to close it sooner. The session
+     * can be used again, and the connections are established on demand.
+     */
     @Override
     public void close() {
+        closed = true;
         try {
             if (pullHandle != null) {
                 pullHandle.close();
@@ -130,39 +237,308 @@ public class EventLogSession implements Closeable {
             // ignore ioe
         }
 
+        waitLock.lock();
         try {
-            if (waitHandle != null) {
-                waitHandle.close();
-                waitHandle = null;
+            closeWaitConnection(new IOException("EventLogSession is closed"));
+        } finally {
+            waitLock.unlock();
+        }
+    }
+
+    // Locked since two threads: EventLogWatcher thread and close's caller thread. A lock
+    // rather than a monitor, so that a virtual thread blocked on the socket doesn't pin its carrier.
+    // A broken pull connection is dropped, and the next call connects again.
+    void sendPull(DcerpcMessage msg, int timeout) throws IOException {
+        IOException broken;
+        boolean connected = false;
+        pullLock.lock();
+        try {
+            if (pullHandle == null) {
+                establishPullConnection();
             }
+            connected = true;
+            pullHandle.setSoTimeout(timeout);
+            pullHandle.sendrecv(msg);
+            return;
         } catch (IOException ioe) {
-            // ignore ioe
+            if (connected && ioe instanceof DcerpcException) {
+                throw ioe;                  // fault of the call, the connection is fine
+            }
+            broken = ioe;
+            brokenPulls.incrementAndGet();
+            closePullConnection();
+        } finally {
+            pullLock.unlock();
+        }
+
+        // The association of the wait connection is the pull connection's, so its
+        // subscription handles are gone too. Not under pullLock, waitLock is taken first.
+        waitLock.lock();
+        try {
+            closeWaitConnection(broken);
+        } finally {
+            waitLock.unlock();
         }
+        throw broken;
     }
 
-    // synchronized since two threads: EventLogWatcher thread and close's caller thread
-    synchronized void sendPull(DcerpcMessage msg, int timeout) throws IOException {
-        if (pullHandle == null) {
-            establishPullConnection();
+    private void closePullConnection() {
+        try {
+            if (pullHandle != null) {
+                pullHandle.close();
+            }
+        } catch (IOException ioe) {
+            // ignore ioe
+        } finally {
+            pullHandle = null;
         }
-        pullHandle.setSoTimeout(timeout);
-        pullHandle.sendrecv(msg);
     }
 
+    /*
+     * Waits on the wait connection until the server has events for the subscription.
+     * An idle timeout doesn't tear down the connection: the outstanding WaitAsync is
+     * still pending at the server, so another one is issued on the same association
+     * (which also finds out if the connection is broken) and the response of any of
+     * them ends the wait. The association is recycled only after MAX_PENDING_WAITS
+     * unanswered waits. Any other failure reconnects once.
+     */
     void sendWait(even6.EvtRpcRemoteSubscriptionWaitAsync msg, int timeout) throws IOException {
-        while (true) {
-            if (waitHandle == null) {
-                establishWaitConnection();
+        even6.EvtRpcRemoteSubscriptionWaitAsync response =
+                (even6.EvtRpcRemoteSubscriptionWaitAsync) waitOn(msg::copy, timeout, true);
+        msg.retVal = response.retVal;
+    }
+
+    /*
+     * Push subscription: the events are the response of the outstanding NextAsync on
+     * the wait connection. An idle timeout keeps waiting for the response of the same
+     * call (issuing another one would only get another batch), as long as the connection
+     * shows that it is alive with the responses of the other calls. A timeout without any
+     * response on the connection may be a half-open connection, so it is recycled and
+     * the NextAsync is issued again on a new connection.
+     */
+    void sendNextAsync(even6.EvtRpcRemoteSubscriptionNextAsync msg, int timeout) throws IOException {
+        waitOn(() -> msg, timeout, false);
+    }
+
+    private DcerpcMessage waitOn(Supplier<DcerpcMessage> request, int timeout, boolean reissue) throws IOException {
+        WaitCall call = null;
+        DcerpcMessage response;
+        boolean probe = false;
+        boolean reconnected = false;
+        try {
+            while (true) {
+                try {
+                    if (call == null) {
+                        call = new WaitCall();
+                        issue(call, request.get());
+                    } else if (probe) {
+                        probe = false;
+                        issue(call, request.get());
+                    }
+                    response = call.response.get(timeout, TimeUnit.MILLISECONDS);
+                    break;
+                } catch (TimeoutException e) {
+                    // No new events within the timeout
+                    idleWaits.incrementAndGet();
+                    if (reissue && call.callIds.size() < MAX_PENDING_WAITS) {
+                        probe = true;
+                    } else if (reissue) {
+                        recycleWaitConnection();
+                        call = null;
+                    } else if (System.nanoTime() - lastWaitResponse > TimeUnit.MILLISECONDS.toNanos(timeout)) {
+                        recycleWaitConnection();    // silent connection, the server may be gone
+                        call = null;
+                    }
+                } catch (ExecutionException | IOException e) {
+                    forget(call);
+                    call = null;
+                    Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+                    if (cause instanceof WaitRecycledException && !closed) {
+                        continue;   // recycled by another call, issued again on a new connection
+                    }
+                    if (closed || reconnected) {
+                        throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+                    }
+                    reconnected = true;
+                    waitReconnects.incrementAndGet();
+                }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            forget(call);
+        }
+
+        DcerpcException de = response.getResult();
+        if (de != null) {
+            throw de;
+        }
+        return response;
+    }
+
+    // Sends a request of the call on the wait connection
+    private void issue(WaitCall call, DcerpcMessage msg) throws IOException {
+        waitLock.lock();
+        try {
             try {
-                waitHandle.setSoTimeout(timeout);
-                waitHandle.sendrecv(msg);
-                break;
-            } catch (SocketTimeoutException se) {
-                // No new events within socket read timeout. Try again with a new connection
+                if (waitHandle == null) {
+                    establishWaitConnection();
+                }
+                waitHandle.send(msg);
+            } catch (IOException ioe) {
+                closeWaitConnection(ioe);
+                throw ioe;
+            }
+            call.callIds.add(msg.getCallId());
+            waitCalls.put(msg.getCallId(), new Pending(call, msg));
+        } finally {
+            waitLock.unlock();
+        }
+    }
+
+    // The call is done, responses to its other requests are discarded
+    private void forget(WaitCall call) {
+        if (call == null) {
+            return;
+        }
+        waitLock.lock();
+        try {
+            for (Integer callId : call.callIds) {
+                waitCalls.remove(callId);
+            }
+        } finally {
+            waitLock.unlock();
+        }
+    }
+
+    private void recycleWaitConnection() {
+        waitLock.lock();
+        try {
+            closeWaitConnection(new WaitRecycledException());
+        } finally {
+            waitLock.unlock();
+        }
+    }
+
+    // Closes the wait connection and fails its outstanding calls, with waitLock held
+    private void closeWaitConnection(IOException failure) {
+        try {
+            if (waitHandle != null) {
                 waitHandle.close();
-                waitHandle = null;
             }
+        } catch (IOException ioe) {
+            // ignore ioe
+        } finally {
+            waitHandle = null;
+        }
+        for (Pending pending : waitCalls.values()) {
+            pending.call.response.completeExceptionally(failure);
+        }
+        waitCalls.clear();
+    }
+
+    // Reader thread of a wait connection: completes the calls as their responses arrive
+    private void readWaitResponses(DcerpcTcpHandle handle) {
+        try {
+            while (true) {
+                Pending[] pending = new Pending[1];
+                DcerpcMessage response = handle.receive(callId -> {
+                    waitLock.lock();
+                    try {
+                        pending[0] = waitCalls.remove(callId);
+                    } finally {
+                        waitLock.unlock();
+                    }
+                    return pending[0] != null ? pending[0].msg : new DiscardedResponse();
+                });
+                lastWaitResponse = System.nanoTime();
+                if (pending[0] != null) {
+                    pending[0].call.response.complete(response);
+                }
+            }
+        } catch (IOException ioe) {
+            waitLock.lock();
+            try {
+                if (waitHandle == handle) {
+                    closeWaitConnection(ioe);
+                }
+            } finally {
+                waitLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return number of connections (TCP connect, bind and NTLM handshake) established
+     *         by this session, for both pull and wait connections
+     */
+    public long getConnects() {
+        return connects.get();
+    }
+
+    /**
+     * @return total time in nanoseconds spent to establish the connections
+     */
+    public long getHandshakeNanos() {
+        return handshakeNanos.get();
+    }
+
+    /**
+     * @return number of wait connections that are established again after a failure
+     */
+    public long getWaitReconnects() {
+        return waitReconnects.get();
+    }
+
+    /**
+     * @return number of waits that timed out without events, and are kept on the same connection
+     */
+    public long getIdleWaits() {
+        return idleWaits.get();
+    }
+
+    // Number of pulls that failed and closed the connections, so the outstanding waits failed too
+    long brokenPulls() {
+        return brokenPulls.get();
+    }
+
+    // A sendWait or sendNextAsync, and the call ids of its requests
+    private static final class WaitCall {
+        final CompletableFuture<DcerpcMessage> response = new CompletableFuture<>();
+        final List<Integer> callIds = new ArrayList<>();       // guarded by waitLock
+    }
+
+    // Failure of the calls on a wait connection that is closed to start a new one, not a broken connection
+    private static final class WaitRecycledException extends IOException {
+        WaitRecycledException() {
+            super("Wait connection is recycled");
+        }
+    }
+
+    private static final class Pending {
+        final WaitCall call;
+        final DcerpcMessage msg;
+
+        Pending(WaitCall call, DcerpcMessage msg) {
+            this.call = call;
+            this.msg = msg;
+        }
+    }
+
+    // Response of a call that is already done
+    private static final class DiscardedResponse extends DcerpcMessage {
+        @Override
+        public int getOpnum() {
+            return 0;
+        }
+
+        @Override
+        public void encode_in(NdrBuffer buf) {
+        }
+
+        @Override
+        public void decode_out(NdrBuffer buf) {
         }
     }
 }
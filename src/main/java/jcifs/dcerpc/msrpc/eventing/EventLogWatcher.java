@@ -15,18 +15,34 @@
  */
 package jcifs.dcerpc.msrpc.eventing;
 
+import jcifs.dcerpc.msrpc.eventing.even6.EventResponse;
 import jcifs.dcerpc.msrpc.eventing.even6.EvtRpcRegisterRemoteSubscription;
 import jcifs.dcerpc.msrpc.eventing.even6.EvtRpcRemoteSubscriptionNext;
+import jcifs.dcerpc.msrpc.eventing.even6.EvtRpcRemoteSubscriptionNextAsync;
 import jcifs.dcerpc.msrpc.eventing.even6.EvtRpcRemoteSubscriptionWaitAsync;
+import jcifs.util.ThreadFactories;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 import static jcifs.dcerpc.msrpc.eventing.even6.*;
 
@@ -40,18 +56,45 @@ public class EventLogWatcher implements Closeable {
     private static final AtomicInteger threadNo = new AtomicInteger();
     private static final int PULL_TIMEOUT = 15000;               // socket read timeout for fetching event messages
     private static final int WAIT_TIMEOUT = 2 * 60 * 1000;       // socket read timeout for waitAsync message
-    private static final int REQUESTED_RECORDS = 5;
+    static final int REQUESTED_RECORDS = 5;
+    private static final int BATCH_BYTE_BUDGET = MAX_PAYLOAD / 2;  // expected result buffer size of a pull
+    private static final Runnable END_OF_PIPELINE = () -> {};
+    private static final int DECODE_CHUNK = 32;                 // records decoded by a task in parallel mode
 
     private final EventLogQuery query;
     private final Consumer<List<EventRecord>> eventCallback;
     private final Consumer<EventLogProgress> progressCallback;
     private final String bookmark;
     private final boolean readExistingEvents;
-    private final int flags;
     private final EventLogProgress progress;
 
+    private Predicate<EventSystem> eventFilter;
+    private EventProjection projection = EventProjection.ALL;
     private EvtRpcRegisterRemoteSubscription subscription;
-    private int requestedRecords = REQUESTED_RECORDS;
+    private AdaptiveBatchSize batchSize;
+    private int minRequestedRecords = REQUESTED_RECORDS;
+    private int maxRequestedRecords = MAX_RPC_RECORD_COUNT;
+    private int batchByteBudget = BATCH_BYTE_BUDGET;
+    private int pipelineDepth;
+    private Executor decodeExecutor;
+    private ThreadFactory threadFactory;
+    private long fallbackPullInterval;
+    private boolean push;
+    private EventLogCheckpointStore checkpointStore;
+    private String[] channels;
+    private ScheduledExecutorService fallbackPulls;
+    private boolean fallbackPullsScheduled;
+    private ReconnectBackoff backoff;
+    private EventLogPublisher.Demand demand;            // paces the pulls, when published
+    private long outageStart;                           // 0 when subscribed
+    private volatile long retryDelay;                   // before the next poll, in the managed mode
+    private volatile EventBookmark lastDelivered;
+    private volatile EventBookmark resumedAfter;        // till a record after it is dispatched
+    private final ReentrantLock pullLock = new ReentrantLock();   // between watcher thread and fallback pulls
+    private final ReentrantLock checkpointLock = new ReentrantLock();     // a save has the latest bookmark
+    private BlockingQueue<Runnable> pipeline;           // pulled batches waiting for the dispatcher
+    private volatile Throwable dispatchFailure;
+    private volatile Exception fallbackFailure;         // of a periodic pull, reported by the watcher thread
     private int pullTimeout = PULL_TIMEOUT;
     private int waitTimeout = WAIT_TIMEOUT;
     private volatile boolean closed;
@@ -119,11 +162,38 @@ public class EventLogWatcher implements Closeable {
         this.eventCallback = eventCallback;
         this.progress = new EventLogProgress();
         this.progressCallback = new NoExceptionProgressCallback(progressCallback);
-        this.flags = flags();
+        query.session.attach();
     }
 
+    /**
+     * Requests a fixed number of records in every pull, instead of adapting it
+     *
+     * @param records number of records in a pull
+     */
     public void setRequestedRecords(int records) {
-        this.requestedRecords = records;
+        setRequestedRecords(records, records);
+    }
+
+    /**
+     * Sets the range of records requested in a pull. The number of records grows
+     * towards the ceiling while the pulls return full batches (for e.g. catching up
+     * with a backlog), and shrinks towards the floor when they don't.
+     *
+     * @param min floor of the requested records, 5 by default
+     * @param max ceiling of the requested records, MAX_RPC_RECORD_COUNT (1024) by default
+     */
+    public void setRequestedRecords(int min, int max) {
+        this.minRequestedRecords = min;
+        this.maxRequestedRecords = max;
+    }
+
+    /**
+     * Sets the size of a pull's result buffer that a growing batch aims to stay within
+     *
+     * @param bytes byte budget of a batch, MAX_PAYLOAD/2 by default
+     */
+    public void setBatchByteBudget(int bytes) {
+        this.batchByteBudget = bytes;
     }
 
     public void setPullTimeout(int pullTimeout) {
@@ -134,90 +204,659 @@ public class EventLogWatcher implements Closeable {
         this.waitTimeout = waitTimeout;
     }
 
+    /**
+     * Sets a filter for the events that cannot be expressed in the query. The filter is
+     * applied to the System properties of a record before the event is decoded, and
+     * only the accepted records are passed to the event callback.
+     *
+     * @param eventFilter a filter that accepts the records to be delivered
+     */
+    public void setEventFilter(Predicate<EventSystem> eventFilter) {
+        this.eventFilter = eventFilter;
+    }
+
+    /**
+     * Sets the EventData values that are decoded for typed events. The other values
+     * are skipped while decoding, and their fields are not set in the typed events.
+     *
+     * @param projection EventData values that are needed, EventProjection.ALL by default
+     */
+    public void setProjection(EventProjection projection) {
+        this.projection = projection;
+    }
+
+    /**
+     * Decouples the pulls from decoding and the event callback. A dispatcher thread
+     * decodes the pulled batches and calls the event callback, while the next batch
+     * is being pulled. At most depth batches wait for the dispatcher, and pulls block
+     * when the event callback falls behind. The progress is updated only after the
+     * event callback returns for a batch.
+     *
+     * @param depth number of batches that can wait for the event callback,
+     *              0 (by default) to decode and call back in the pulling thread
+     */
+    public void setPipelineDepth(int depth) {
+        this.pipelineDepth = depth;
+    }
+
+    /**
+     * Decodes the records of a pulled batch in parallel, in chunks of records. The
+     * events are decoded before the event callback, and the callback still gets the
+     * records in the order they are pulled.
+     *
+     * @param executor executor for decoding, for e.g. ForkJoinPool.commonPool(),
+     *                 or null (by default) to decode in the watcher's thread on demand
+     */
+    public void setDecodeExecutor(Executor executor) {
+        this.decodeExecutor = executor;
+    }
+
+    /**
+     * Subscribes in push mode: the events are received as the response of an outstanding
+     * EvtRpcRemoteSubscriptionNextAsync on the wait connection, a batch per round trip.
+     * In the default pull mode, every batch takes an EvtRpcRemoteSubscriptionWaitAsync
+     * round trip on the wait connection and an EvtRpcRemoteSubscriptionNext round trip
+     * on the pull connection. The callbacks and progress are the same in both modes;
+     * the fallback pull interval is not used in push mode.
+     *
+     * @param push true for a push subscription, false (by default) for a pull subscription
+     */
+    public void setPushMode(boolean push) {
+        this.push = push;
+    }
+
+    /**
+     * Saves the bookmark of the last event of every batch to the store, after the event
+     * callback returns for the batch. When the watcher is started without a bookmark,
+     * it resumes after the stored bookmark of its host and channel, if there is one.
+     * A failed save doesn't stop the watcher: it is in EventLogProgress.checkpointError,
+     * and the bookmark is saved again with the next batch or when the watcher is closed.
+     *
+     * @param store checkpoint store, for e.g. FileCheckpointStore
+     */
+    public void setCheckpointStore(EventLogCheckpointStore store) {
+        this.checkpointStore = store;
+    }
+
+    /**
+     * Pulls the events periodically, in addition to the pulls that are triggered by
+     * EvtRpcRemoteSubscriptionWaitAsync. Even if the wait connection is stuck, the
+     * events are pulled on the pull connection at least every interval, so the wait
+     * timeout can be much larger. A periodic pull is skipped while the watcher thread
+     * is pulling; the two never pull at the same time, so the event callback is not
+     * called concurrently (though it may be called in either of the threads, unless
+     * the watcher is pipelined).
+     *
+     * @param interval interval between the periodic pulls, 0 (by default) for no periodic pulls
+     * @param unit unit of the interval
+     */
+    public void setFallbackPullInterval(long interval, TimeUnit unit) {
+        this.fallbackPullInterval = unit.toMillis(interval);
+    }
+
+    /**
+     * Subscribes again after the subscription fails, instead of ending the watcher.
+     * The attempts are delayed by a jittered exponential backoff: a random delay below
+     * a ceiling that starts at initial and doubles with every failed attempt up to max.
+     * The new subscription starts after the last event that was delivered to the event
+     * callback (or as the first one did, if none was delivered yet), and any records
+     * that the server sends again are skipped. The failures are reported to the progress
+     * callback (EventLogProgress.connectionError, cleared on recovery) rather than as
+     * error records. A failure of the event callback still ends the watcher.
+     *
+     * @param initial ceiling of the first delay, 0 (by default) to end the watcher on a failure
+     * @param max largest ceiling of a delay
+     * @param unit unit of the delays
+     */
+    public void setReconnectBackoff(long initial, long max, TimeUnit unit) {
+        this.backoff = initial == 0 ? null : new ReconnectBackoff(unit.toMillis(initial), unit.toMillis(max));
+    }
+
+    /**
+     * Creates the watcher's thread, and the dispatcher thread in pipelined mode. The
+     * watcher thread mostly blocks on the subscription's socket reads, so a factory
+     * of virtual threads lets many watchers run without a platform thread each.
+     *
+     * @param threadFactory thread factory, by default virtual or platform threads
+     *                      as per jcifs.util.virtualThreads
+     */
+    public void setThreadFactory(ThreadFactory threadFactory) {
+        this.threadFactory = threadFactory;
+    }
+
+    // Pulls only as many records as the subscriber of an EventLogPublisher asked for
+    void setDemand(EventLogPublisher.Demand demand) {
+        this.demand = demand;
+    }
+
     public void start() {
-        new Thread(this::run, "EventLogWatcher-" + threadNo.getAndIncrement()).start();
+        int no = threadNo.getAndIncrement();
+        if (pipelineDepth > 0) {
+            pipeline = new ArrayBlockingQueue<>(pipelineDepth);
+            newThread(this::dispatch, "EventLogWatcher-" + no + "-dispatch").start();
+        }
+        if (fallbackPullInterval > 0 && !push) {
+            fallbackPulls = Executors.newSingleThreadScheduledExecutor(
+                    r -> newThread(r, "EventLogWatcher-" + no + "-fallback"));
+        }
+        newThread(this::run, "EventLogWatcher-" + no).start();
+    }
+
+    private Thread newThread(Runnable task, String name) {
+        if (threadFactory == null) {
+            return ThreadFactories.newThread(task, name, false);
+        }
+        Thread thread = threadFactory.newThread(task);
+        thread.setName(name);
+        return thread;
     }
 
     private void run() {
         try {
-            subscription = new EvtRpcRegisterRemoteSubscription(query.path, query.query, null, flags);
-            query.session.sendPull(subscription, pullTimeout);
-            if (subscription.retVal != 0) {
-                throw new EventLogException("EvtRpcRegisterRemoteSubscription return value = " + subscription.retVal);
+            while (!closed) {
+                try {
+                    receive();
+                } catch (Exception e) {
+                    if (!reconnecting(e) || !sleep(backoff.next())) {
+                        failed(e);
+                        return;
+                    }
+                }
             }
+        } finally {
+            if (fallbackPulls != null) {
+                fallbackPulls.shutdown();
+            }
+            pullLock.lock();            // till a periodic pull is done
+            try {
+                if (pipeline != null) {
+                    handOff(END_OF_PIPELINE);
+                }
+            } finally {
+                pullLock.unlock();
+            }
+        }
+    }
 
-            while (!closed) {
-                progress.lastSubscriptionTime = Instant.now().toEpochMilli();
-                progressCallback.accept(progress);
+    // Subscribes, and receives the events till the watcher is closed or the subscription fails
+    private void receive() throws Exception {
+        pullLock.lock();
+        try {
+            subscribe();
+            fallbackFailure = null;     // of the old subscription
+        } finally {
+            pullLock.unlock();
+        }
+        if (fallbackPulls != null && !fallbackPullsScheduled) {
+            fallbackPullsScheduled = true;
+            fallbackPulls.scheduleWithFixedDelay(this::fallbackPull,
+                    fallbackPullInterval, fallbackPullInterval, TimeUnit.MILLISECONDS);
+        }
+
+        while (!closed && push) {
+            progress.lastSubscriptionTime = Instant.now().toEpochMilli();
+            progressCallback.accept(progress);
+
+            receiveEvents();
+        }
+
+        while (!closed) {
+            progress.lastSubscriptionTime = Instant.now().toEpochMilli();
+            progressCallback.accept(progress);
 
-                EvtRpcRemoteSubscriptionWaitAsync wait = new EvtRpcRemoteSubscriptionWaitAsync(subscription.handle);
+            fallbackFailed();
+            EvtRpcRemoteSubscriptionWaitAsync wait = new EvtRpcRemoteSubscriptionWaitAsync(subscription.handle);
+            try {
                 query.session.sendWait(wait, waitTimeout);
-                if (!closed && wait.retVal != 0) {
-                    throw new EventLogException("EvtRpcRemoteSubscriptionWaitAsync return value = " + wait.retVal);
+            } catch (IOException e) {
+                fallbackFailed();   // the periodic pull broke the connections
+                throw e;
+            }
+            fallbackFailed();
+            if (!closed && wait.retVal != 0) {
+                throw new EventLogException("EvtRpcRemoteSubscriptionWaitAsync return value = " + wait.retVal);
+            }
+            pullLock.lock();
+            try {
+                pullEvents(pullTimeout);
+            } finally {
+                pullLock.unlock();
+            }
+        }
+    }
+
+    // Waits before subscribing again, false if the watcher is closed (or interrupted) meanwhile
+    private boolean sleep(long millis) {
+        long end = System.currentTimeMillis() + millis;
+        try {
+            for (long left = millis; !closed && left > 0; left = end - System.currentTimeMillis()) {
+                Thread.sleep(Math.min(left, 100));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return !closed;
+    }
+
+    // Periodic pull of the fallback timer, unless the watcher thread is already pulling
+    private void fallbackPull() {
+        if (closed || !pullLock.tryLock()) {
+            return;
+        }
+        long brokenPulls = query.session.brokenPulls();
+        try {
+            if (!closed) {
+                pullEvents(0);      // a periodic check, it doesn't hold pullLock while nothing is new
+            }
+        } catch (Exception e) {
+            // reported by the watcher thread, it subscribes again or fails the watcher
+            fallbackFailure = e;
+            if (query.session.brokenPulls() == brokenPulls) {
+                cancelWait();       // the connections are fine and the wait wouldn't fail
+            }
+            if (backoff == null || dispatchFailure != null) {
+                fallbackPulls.shutdown();
+            }
+        } finally {
+            pullLock.unlock();
+        }
+    }
+
+    // Fails the watcher thread with the failure of a periodic pull, to subscribe again or fail the watcher
+    private void fallbackFailed() throws Exception {
+        Exception e = fallbackFailure;
+        if (e != null) {
+            fallbackFailure = null;
+            throw e;
+        }
+    }
+
+    private void cancelWait() {
+        try {
+            query.session.sendPull(new EvtRpcCancel(subscription.control), pullTimeout);
+        } catch (Exception e) {
+            // the wait fails with the broken connections
+        }
+    }
+
+    // The caller holds pullLock, except in the managed mode
+    private void subscribe() throws IOException {
+        batchSize = new AdaptiveBatchSize(minRequestedRecords, maxRequestedRecords, batchByteBudget);
+        String bookmark = this.bookmark;
+        if (outageStart != 0) {
+            resubscribing();
+            if (progress.lastBookmark != null) {
+                bookmark = progress.lastBookmark;
+                resumedAfter = lastDelivered;
+            }
+        }
+        if (bookmark == null && checkpointStore != null) {
+            bookmark = checkpointStore.load(host(), query.path);
+        }
+        int flags = flags(bookmark);
+        subscription = new EvtRpcRegisterRemoteSubscription(query.path, query.query, bookmark,
+                push ? flags & ~EvtSubscribePull : flags);
+        query.session.sendPull(subscription, pullTimeout);
+        if (subscription.retVal != 0) {
+            throw new EventLogException("EvtRpcRegisterRemoteSubscription return value = " + subscription.retVal);
+        }
+        channels = channels(subscription);
+        recovered();
+    }
+
+    /*
+     * Whether the watcher subscribes again after the failure. The failures of the event
+     * callback (and of decoding) are not recovered, as the same records would fail again.
+     */
+    private boolean reconnecting(Exception e) {
+        if (backoff == null || closed || dispatchFailure != null) {
+            return false;
+        }
+        if (e instanceof IOException) {
+            ioException = true;
+        }
+        if (outageStart == 0) {
+            outageStart = System.currentTimeMillis();
+            progress.outages++;
+        }
+        progress.connectionError = e instanceof EventLogException ? (EventLogException) e : new EventLogException(e);
+        progressCallback.accept(progress);
+        return true;
+    }
+
+    // Before subscribing again: the old subscription is let go, and the pulled batches are delivered
+    private void resubscribing() throws IOException {
+        progress.reconnects++;
+        if (subscription != null && !ioException) {
+            try {
+                query.session.sendPull(new EvtRpcClose(subscription.handle), pullTimeout);
+                query.session.sendPull(new EvtRpcClose(subscription.control), pullTimeout);
+            } catch (Exception e) {
+                // ignore, the server drops it with the connection
+            }
+        }
+        subscription = null;
+        if (pipeline != null) {
+            CountDownLatch delivered = new CountDownLatch(1);
+            handOff(delivered::countDown);
+            try {
+                while (!delivered.await(100, TimeUnit.MILLISECONDS) && !closed && dispatchFailure == null) {
+                    // waiting for the event callback
                 }
-                pullEvents();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
             }
+        }
+        if (dispatchFailure != null) {
+            throw new EventLogException(dispatchFailure);
+        }
+    }
+
+    private void recovered() {
+        if (backoff != null) {
+            backoff.reset();
+        }
+        retryDelay = 0;
+        ioException = false;
+        if (outageStart != 0) {
+            long outage = System.currentTimeMillis() - outageStart;
+            outageStart = 0;
+            progress.lastOutageMillis = outage;
+            progress.totalOutageMillis += outage;
+            progress.connectionError = null;
+        }
+    }
+
+    // Channel names of the bookmarks, in the order of the record numbers
+    private String[] channels(EvtRpcRegisterRemoteSubscription subscription) {
+        if (subscription.queryChannelInfo == null || subscription.queryChannelInfo.length == 0) {
+            return new String[] { query.path };
+        }
+        String[] channels = new String[subscription.queryChannelInfo.length];
+        for (int i = 0; i < channels.length; i++) {
+            channels[i] = subscription.queryChannelInfo[i].name;
+        }
+        return channels;
+    }
+
+    /*
+     * One cycle of a watcher that is scheduled by EventLogWatcherManager instead of
+     * running in its own thread. Events are pulled without EvtRpcRemoteSubscriptionWaitAsync,
+     * so no thread blocks on a wait and the session needs only the pull connection.
+     *
+     * @return true if the watcher is to be polled again
+     */
+    boolean poll() {
+        try {
+            if (subscription == null || outageStart != 0) {
+                subscribe();
+                progress.lastSubscriptionTime = Instant.now().toEpochMilli();
+            }
+            pullEvents(0);          // a quiet host doesn't hold the worker and its host permit
+            progressCallback.accept(progress);
+            return !closed && dispatchFailure == null;
         } catch (Exception e) {
-            if (e instanceof IOException) {
-                ioException = true;
+            if (reconnecting(e)) {
+                retryDelay = backoff.next();    // subscribed again by a later poll
+                return true;
             }
-            if (!closed) {
-                EventLogException ee = e instanceof EventLogException ? (EventLogException) e : new EventLogException(e);
-                EventRecord eventRecord = new EventRecord(ee);
-                List<EventRecord> events = Collections.singletonList(eventRecord);
-                eventCallback.accept(events);
+            failed(e);
+            return false;
+        }
+    }
+
+    // Delay before the next poll in the managed mode, while reconnecting
+    long retryDelay() {
+        return retryDelay;
+    }
+
+    String host() {
+        return query.session.getServer();
+    }
 
-                progress.connectionError =  ee;
-                progressCallback.accept(progress);
+    boolean isClosed() {
+        return closed;
+    }
+
+    EventLogProgress progress() {
+        return progress;
+    }
+
+    private void failed(Exception e) {
+        if (e instanceof IOException) {
+            ioException = true;
+        }
+        if (!closed) {
+            EventLogException ee = e instanceof EventLogException ? (EventLogException) e : new EventLogException(e);
+            if (pipeline != null && dispatchFailure == null) {
+                // after the batches that are already pulled
+                handOff(() -> deliver(ee));
+            } else {
+                deliver(ee);
             }
         }
     }
 
+    private void deliver(EventLogException ee) {
+        EventRecord eventRecord = new EventRecord(ee);
+        List<EventRecord> events = Collections.singletonList(eventRecord);
+        eventCallback.accept(events);
+
+        progress.connectionError =  ee;
+        progressCallback.accept(progress);
+    }
+
+    // Dispatcher thread of the pipelined mode: decodes and calls back in the order of pulls
+    private void dispatch() {
+        try {
+            while (true) {
+                Runnable batch = pipeline.poll(100, TimeUnit.MILLISECONDS);
+                if (batch == END_OF_PIPELINE || batch == null && closed) {
+                    return;
+                }
+                if (batch != null) {
+                    batch.run();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+            dispatchFailure = e;        // reported by the pulling thread
+            pipeline.clear();
+        }
+    }
+
+    // Runs the batch in the pulling thread, or waits till the dispatcher has room for it
+    private void handOff(Runnable batch) {
+        if (pipeline == null) {
+            batch.run();
+            return;
+        }
+        try {
+            while (!pipeline.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+                if (closed || dispatchFailure != null) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     /*
      * pull loop is triggered by
      *     1. EvtRpcRemoteSubscriptionWaitAsync unblocks when there are new events
-     *     2. TODO (may be a periodic timer). Even if wait async TCP connection is stuck,
+     *     2. periodic fallback timer (if it is set). Even if wait async TCP connection is stuck,
      *        the events can still be pulled (though less frequently). Also, we can increase
      *        wait async timeout, that means less teardowns when there are no events
      *        within socket read timeout peroid.
+     * The caller holds pullLock, except in the managed mode. The server waits up to
+     * serverTimeout for the requested records, 0 to return what it has right away.
      */
-    private void pullEvents() throws IOException {
+    private void pullEvents(int serverTimeout) throws IOException {
+        int requestedRecords = batchSize.next();
         int recvRecords = requestedRecords;
 
         while (!closed && recvRecords == requestedRecords) {
             progress.lastPullTime = Instant.now().toEpochMilli();
 
+            requestedRecords = batchSize.next();
+            if (demand != null && (requestedRecords = demand.await(requestedRecords)) == 0) {
+                return;             // cancelled
+            }
             EvtRpcRemoteSubscriptionNext pull = new EvtRpcRemoteSubscriptionNext(
-                    subscription.handle, requestedRecords, pullTimeout, 0);
+                    subscription.handle, requestedRecords, serverTimeout, 0);
             query.session.sendPull(pull, pullTimeout + 1000);
             if (pull.retVal != 0) {
                 throw new EventLogException("EvtRpcRemoteSubscriptionNext return value = " + pull.retVal);
             }
             recvRecords = pull.numActualRecords;
+            batchSize.update(requestedRecords, recvRecords, pull.resultBufferSize);
 
             if (recvRecords > 0) {
-                List<EventRecord> events = new ArrayList<>(recvRecords);
-                for (int i = 0; i < recvRecords; i++) {
-                    EventRecord record = new EventRecord(pull.resultBuffer, pull.eventDataIndices[i], pull.eventDataSizes[i]);
-                    events.add(record);
-                }
-                eventCallback.accept(events);
+                handOff(() -> dispatch(pull));
+            }
+            if (dispatchFailure != null) {
+                throw new EventLogException(dispatchFailure);
+            }
+        }
+    }
+
+    // Push mode: a batch of events that the server sends when they are available
+    private void receiveEvents() throws IOException {
+        progress.lastPullTime = Instant.now().toEpochMilli();
+
+        int requestedRecords = batchSize.next();
+        if (demand != null && (requestedRecords = demand.await(requestedRecords)) == 0) {
+            return;                 // cancelled
+        }
+        EvtRpcRemoteSubscriptionNextAsync next = new EvtRpcRemoteSubscriptionNextAsync(
+                subscription.handle, requestedRecords, 0);
+        query.session.sendNextAsync(next, waitTimeout);
+        if (closed) {
+            return;
+        }
+        if (next.retVal != 0) {
+            throw new EventLogException("EvtRpcRemoteSubscriptionNextAsync return value = " + next.retVal);
+        }
+        batchSize.update(requestedRecords, next.numActualRecords, next.resultBufferSize);
+
+        if (next.numActualRecords > 0) {
+            handOff(() -> dispatch(next));
+        }
+        if (dispatchFailure != null) {
+            throw new EventLogException(dispatchFailure);
+        }
+    }
+
+    // Decodes the records of a pull, and calls back with the ones that pass the filter
+    private void dispatch(EventResponse pull) {
+        try {
+            dispatchRecords(pull);
+        } catch (RuntimeException | Error e) {
+            dispatchFailure = e;        // not recovered by reconnecting
+            throw e;
+        }
+    }
+
+    private void dispatchRecords(EventResponse pull) {
+        int recvRecords = pull.numActualRecords;
+        EventRecord[] records = new EventRecord[recvRecords];
+        boolean[] accepted = new boolean[recvRecords];
+        if (decodeExecutor == null || recvRecords <= DECODE_CHUNK) {
+            decode(pull, records, accepted, 0, recvRecords, decodeExecutor != null);
+        } else {
+            List<CompletableFuture<Void>> chunks = new ArrayList<>();
+            for (int from = 0; from < recvRecords; from += DECODE_CHUNK) {
+                int start = from;
+                int end = Math.min(recvRecords, from + DECODE_CHUNK);
+                chunks.add(CompletableFuture.runAsync(
+                        () -> decode(pull, records, accepted, start, end, true), decodeExecutor));
+            }
+            try {
+                CompletableFuture.allOf(chunks.toArray(new CompletableFuture<?>[0])).join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
 
-                // Update the event log progress
-                updateProgress(events);
+        // After a reconnect, the server may send again the records up to the bookmark
+        int from = 0;
+        EventBookmark resumedAfter = this.resumedAfter;
+        if (resumedAfter != null) {
+            while (from < recvRecords && !records[from].bookmark().after(resumedAfter)) {
+                from++;
+            }
+            progress.skippedDuplicates += from;
+            if (from == recvRecords) {
+                return;
+            }
+            this.resumedAfter = null;
+        }
+
+        List<EventRecord> events = new ArrayList<>(recvRecords - from);
+        for (int i = from; i < recvRecords; i++) {
+            if (accepted[i]) {
+                events.add(records[i]);
             }
         }
+        if (!events.isEmpty()) {
+            eventCallback.accept(events);
+        }
+
+        // Update the event log progress (including the filtered out records)
+        updateProgress(records[recvRecords - 1]);
     }
 
-    private void updateProgress(List<EventRecord> events) {
-        Event last = events.get(events.size() - 1).event();
+    // Creates and filters the records [from, to) of a pull, decoding the accepted events if asked
+    private void decode(EventResponse pull, EventRecord[] records, boolean[] accepted,
+            int from, int to, boolean decodeEvents) {
+        for (int i = from; i < to; i++) {
+            EventRecord record = new EventRecord(pull.resultBuffer, pull.eventDataIndices[i], pull.eventDataSizes[i],
+                    query.session.getTemplateCache(), projection);
+            records[i] = record;
+            accepted[i] = eventFilter == null || eventFilter.test(record.system());
+            if (accepted[i] && decodeEvents) {
+                try {
+                    record.event();
+                } catch (RuntimeException e) {
+                    // not decoded, the callback gets the same exception when it asks for the event
+                }
+            }
+        }
+    }
+
+    private void updateProgress(EventRecord record) {
+        progress.lastEventRecordId = (int) record.recordId;
+        lastDelivered = record.bookmark();
+        progress.lastBookmark = lastDelivered.xml(channels);
+        if (checkpointStore != null) {
+            saveCheckpoint();
+        }
+
+        // Don't decode the event just for the progress, if the callback didn't need it
+        Event last = record.decodedEvent();
         if (last != null) {
             progress.lastEventTimeCreated = last.timeCreated;
-            progress.lastEventRecordId = last.eventRecordId;
         }
     }
 
-    private int flags() {
+    // A failed save doesn't stop the watcher, it is in the progress and the next save has the later bookmark
+    private void saveCheckpoint() {
+        checkpointLock.lock();
+        try {
+            checkpointStore.save(host(), query.path, progress.lastBookmark);
+            progress.checkpointError = null;
+        } catch (IOException e) {
+            progress.checkpointError = new EventLogException(e);
+        } finally {
+            checkpointLock.unlock();
+        }
+    }
+
+    private int flags(String bookmark) {
         int flags = EvtSubscribePull;
         if (bookmark != null) {
             flags |= EvtSubscribeStartAfterBookmark;
@@ -234,10 +873,17 @@ public class EventLogWatcher implements Closeable {
     public void close() {
         if (!closed) {
             closed = true;
+            if (fallbackPulls != null) {
+                fallbackPulls.shutdown();
+            }
+            if (checkpointStore != null && progress.checkpointError != null) {
+                saveCheckpoint();       // retried once more, the last batch isn't followed by another
+            }
 
             if (!ioException) {
                 try {
-                    // Cancel any pending EvtRpcRemoteSubscriptionWaitAsync or EvtRpcRemoteSubscriptionNext request
+                    // Cancel any pending EvtRpcRemoteSubscriptionWaitAsync, EvtRpcRemoteSubscriptionNextAsync
+                    // or EvtRpcRemoteSubscriptionNext request
                     EvtRpcCancel cancel = new EvtRpcCancel(subscription.control);
                     query.session.sendPull(cancel, pullTimeout);
 
@@ -253,7 +899,7 @@ public class EventLogWatcher implements Closeable {
                 }
             }
 
-            query.session.close();
+            query.session.detach();
         }
     }
 
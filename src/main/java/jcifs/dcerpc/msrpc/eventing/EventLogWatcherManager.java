@@ -0,0 +1,246 @@
+/**
+ * Copyright 2020 Jitendra Kotamraju.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcifs.dcerpc.msrpc.eventing;
+
+import jcifs.util.ThreadFactories;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the subscriptions of many watchers (typically one per host) on a bounded pool
+ * of worker threads, instead of a thread per watcher. A managed watcher doesn't block
+ * on EvtRpcRemoteSubscriptionWaitAsync; its events are pulled every poll interval,
+ * so it needs only the pull connection of its session. The number of watchers of a
+ * host that pull at the same time is limited, and a watcher that cannot get a permit
+ * is retried later without holding a worker. The event callback of a managed watcher
+ * is called in a worker thread (its pipeline depth is not used).
+ *
+ * <pre>
+ *     EventLogWatcherManager manager = new EventLogWatcherManager(16, 1, 5, TimeUnit.SECONDS);
+ *     for (String host : hosts) {
+ *         EventLogSession session = new EventLogSession(host, domain, user, password);
+ *         EventLogQuery query = new EventLogQuery("Security", LogName, "*", session, false);
+ *         manager.add(new EventLogWatcher(query, callback));
+ *     }
+ *     manager.start();
+ *     ...
+ *     manager.close();
+ * </pre>
+ *
+ * @author Jitendra Kotamraju
+ */
+public class EventLogWatcherManager implements Closeable {
+    private static final AtomicInteger managerNo = new AtomicInteger();
+    private static final long PERMIT_RETRY_MILLIS = 100;
+
+    private final ScheduledExecutorService scheduler;
+    private final int maxPerHost;
+    private final long pollIntervalMillis;
+    private final Map<String, Host> hosts = new ConcurrentHashMap<>();
+    private volatile boolean started;
+    private volatile boolean closed;
+
+    /**
+     * @param workers number of threads that pull and dispatch events for all the watchers
+     * @param maxPerHost maximum number of watchers of a host that pull at the same time
+     * @param pollInterval delay between the end of a watcher's pull and its next pull
+     * @param unit unit of the poll interval
+     */
+    public EventLogWatcherManager(int workers, int maxPerHost, long pollInterval, TimeUnit unit) {
+        if (workers < 1 || maxPerHost < 1) {
+            throw new IllegalArgumentException("workers=" + workers + " maxPerHost=" + maxPerHost);
+        }
+        this.scheduler = new ScheduledThreadPoolExecutor(workers,
+                ThreadFactories.newThreadFactory("EventLogWatcherManager-" + managerNo.getAndIncrement(), false));
+        this.maxPerHost = maxPerHost;
+        this.pollIntervalMillis = unit.toMillis(pollInterval);
+    }
+
+    /**
+     * Adds a watcher that is not started. It is scheduled right away if the manager is
+     * already started.
+     *
+     * @param watcher watcher to be run by this manager
+     */
+    public synchronized void add(EventLogWatcher watcher) {
+        if (closed) {
+            throw new IllegalStateException("EventLogWatcherManager is closed");
+        }
+        Host host = hosts.computeIfAbsent(watcher.host(), name -> new Host(name, maxPerHost));
+        Managed managed = new Managed(watcher);
+        host.watchers.add(managed);
+        if (started) {
+            schedule(host, managed, 0);
+        }
+    }
+
+    /**
+     * Starts pulling events for all the added watchers
+     */
+    public synchronized void start() {
+        if (!started && !closed) {
+            started = true;
+            for (Host host : hosts.values()) {
+                for (Managed managed : host.watchers) {
+                    schedule(host, managed, 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Status of the watchers per host
+     *
+     * @return host name to its status, sorted by host name
+     */
+    public Map<String, HostStatus> status() {
+        Map<String, HostStatus> status = new TreeMap<>();
+        for (Host host : hosts.values()) {
+            status.put(host.name, host.status());
+        }
+        return status;
+    }
+
+    /**
+     * Stops pulling events, and closes all the watchers and their sessions
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        scheduler.shutdown();
+        for (Host host : hosts.values()) {
+            for (Managed managed : host.watchers) {
+                managed.watcher.close();
+            }
+        }
+    }
+
+    private void schedule(Host host, Managed managed, long delayMillis) {
+        if (!closed) {
+            scheduler.schedule(() -> poll(host, managed), delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void poll(Host host, Managed managed) {
+        if (closed || managed.watcher.isClosed()) {
+            return;
+        }
+        if (!host.permits.tryAcquire()) {
+            schedule(host, managed, Math.min(pollIntervalMillis, PERMIT_RETRY_MILLIS));
+            return;
+        }
+        boolean again;
+        managed.active = true;
+        try {
+            again = managed.watcher.poll();
+        } finally {
+            managed.active = false;
+            host.permits.release();
+        }
+        if (again) {
+            // a reconnecting watcher backs off, its delay is jittered across the hosts
+            schedule(host, managed, Math.max(pollIntervalMillis, managed.watcher.retryDelay()));
+        } else if (!managed.watcher.isClosed()) {
+            managed.failed = true;
+        }
+    }
+
+    private static final class Host {
+        final String name;
+        final Semaphore permits;
+        final List<Managed> watchers = new CopyOnWriteArrayList<>();
+
+        Host(String name, int maxPerHost) {
+            this.name = name;
+            this.permits = new Semaphore(maxPerHost);
+        }
+
+        HostStatus status() {
+            int active = 0;
+            int failed = 0;
+            long lastPullTime = 0;
+            EventLogException connectionError = null;
+            for (Managed managed : watchers) {
+                EventLogProgress progress = managed.watcher.progress();
+                active += managed.active ? 1 : 0;
+                failed += managed.failed ? 1 : 0;
+                lastPullTime = Math.max(lastPullTime, progress.lastPullTime);
+                if (progress.connectionError != null) {
+                    connectionError = progress.connectionError;
+                }
+            }
+            return new HostStatus(name, watchers.size(), active, failed, lastPullTime, connectionError);
+        }
+    }
+
+    private static final class Managed {
+        final EventLogWatcher watcher;
+        volatile boolean active;
+        volatile boolean failed;
+
+        Managed(EventLogWatcher watcher) {
+            this.watcher = watcher;
+        }
+    }
+
+    /**
+     * Status of the watchers of a host
+     */
+    public static final class HostStatus {
+        public final String host;
+        public final int watchers;
+        public final int active;            // pulling right now
+        public final int failed;            // stopped due to an error
+        public final long lastPullTime;
+        public final EventLogException connectionError;
+
+        HostStatus(String host, int watchers, int active, int failed, long lastPullTime,
+                EventLogException connectionError) {
+            this.host = host;
+            this.watchers = watchers;
+            this.active = active;
+            this.failed = failed;
+            this.lastPullTime = lastPullTime;
+            this.connectionError = connectionError;
+        }
+
+        @Override
+        public String toString() {
+            return "(host=" + host +
+                    ", watchers=" + watchers +
+                    ", active=" + active +
+                    ", failed=" + failed +
+                    ", lastPullTime=" + lastPullTime +
+                    ", connectionError=" + connectionError +
+                    ")";
+        }
+    }
+}
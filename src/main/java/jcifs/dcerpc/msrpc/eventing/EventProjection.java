@@ -0,0 +1,64 @@
+/**
+ * Copyright 2020 Jitendra Kotamraju.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcifs.dcerpc.msrpc.eventing;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * EventData values that are decoded for typed events. The substitution values of
+ * other names are skipped without decoding them (no string decoding, SID or GUID
+ * formatting), and the corresponding fields of the typed event are null (or -1 for
+ * numbers). System properties are always decoded.
+ *
+ * <pre>
+ *     watcher.setProjection(EventProjection.of("TargetUserName", "TargetDomainName",
+ *             "LogonType", "IpAddress", "IpPort", "TargetLogonId"));
+ * </pre>
+ *
+ * @author Jitendra Kotamraju
+ */
+public final class EventProjection {
+    /**
+     * Decodes all EventData values
+     */
+    public static final EventProjection ALL = new EventProjection(null);
+
+    private final Set<String> names;       // null means all
+
+    private EventProjection(Set<String> names) {
+        this.names = names;
+    }
+
+    /**
+     * @param names names of {@code <EventData><Data Name="..."/></EventData>} values to decode
+     * @return projection of the given EventData names
+     */
+    public static EventProjection of(String... names) {
+        return new EventProjection(Collections.unmodifiableSet(new HashSet<>(Arrays.asList(names))));
+    }
+
+    boolean contains(String name) {
+        return names == null || names.contains(name);
+    }
+
+    @Override
+    public String toString() {
+        return names == null ? "ALL" : names.toString();
+    }
+}
@@ -15,19 +15,24 @@
  */
 package jcifs.dcerpc.msrpc.eventing;
 
+import jcifs.Config;
 import jcifs.util.Encdec;
 
 import javax.xml.stream.XMLStreamException;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
+import java.util.Arrays;
 
 /*
- * 2.2.17 Result Set in MS-EVEN6
+ * 2.2.17 Result Set in MS-EVEN6, or an event record of an EVTX file
  *
  * @author Jitendra Kotamraju
  */
 public class EventRecord {
+    // Decodes events by rendering BinXml to xml and parsing it, instead of directly from BinXml
+    private static final boolean XML_DECODER = Config.getBoolean("jcifs.dcerpc.msrpc.eventing.xmlDecoder", false);
+
     public final EventLogException exception;
 
     public final int totalSize;
@@ -42,9 +47,22 @@ public class EventRecord {
     public final int recordIdsOffset;
     public final long recordId;
 
-    public final Event event;
+    private final BinXmlTemplateCache templateCache;
+    private final EventProjection projection;
+    private final int chunkOffset;         // start of the EVTX chunk of the record, -1 for a result set record
+    private volatile Event event;          // decoded on first access
 
     EventRecord(byte[] buf, int offset, int length) {
+        this(buf, offset, length, null);
+    }
+
+    EventRecord(byte[] buf, int offset, int length, BinXmlTemplateCache templateCache) {
+        this(buf, offset, length, templateCache, EventProjection.ALL);
+    }
+
+    EventRecord(byte[] buf, int offset, int length, BinXmlTemplateCache templateCache, EventProjection projection) {
+        this.templateCache = templateCache;
+        this.projection = projection;
         this.buf = buf;
         this.offset = offset;
         this.length = length;
@@ -57,13 +75,42 @@ public class EventRecord {
         bookmarkSize = Encdec.dec_uint32le(buf, offset + bookmarkOffset);
         recordIdsOffset = Encdec.dec_uint32le(buf, offset + bookmarkOffset + 20);
         recordId = Encdec.dec_uint64le(buf, offset + bookmarkOffset + recordIdsOffset);
-        event = parseEvent();
+
+        chunkOffset = -1;
+        exception = null;
+    }
+
+    // EVTX record = Signature Size RecordId TimeWritten BinXml Size, names and templates are in its chunk
+    private EventRecord(BinXmlTemplateCache chunkTemplates, EventProjection projection, byte[] buf, int offset,
+            int chunkOffset) {
+        this.templateCache = chunkTemplates;
+        this.projection = projection;
+        this.buf = buf;
+        this.offset = offset;
+        this.chunkOffset = chunkOffset;
+
+        totalSize = Encdec.dec_uint32le(buf, offset + 4);
+        length = totalSize;
+        headerSize = 24;
+        eventOffset = 24;
+        binXmlSize = totalSize - 28;
+        recordId = Encdec.dec_uint64le(buf, offset + 8);
+        bookmarkOffset = 0;
+        bookmarkSize = 0;
+        recordIdsOffset = 0;
 
         exception = null;
     }
 
+    static EventRecord evtx(byte[] buf, int offset, int chunkOffset, BinXmlTemplateCache chunkTemplates,
+            EventProjection projection) {
+        return new EventRecord(chunkTemplates, projection, buf, offset, chunkOffset);
+    }
+
     EventRecord(EventLogException exception) {
         this.exception = exception;
+        this.templateCache = null;
+        this.projection = EventProjection.ALL;
 
         this.buf = null;
         this.offset = 0;
@@ -77,23 +124,85 @@ public class EventRecord {
         bookmarkSize = 0;
         recordIdsOffset = 0;
         recordId = 0;
-
-        event = null;
+        chunkOffset = -1;
     }
 
     int binXmlOffset() {
-        return offset + 20;
+        return chunkOffset == -1 ? offset + 20 : offset + 24;
     }
 
+    /**
+     * Decodes the BinXml of this record on the first call. The header fields
+     * (recordId, sizes etc.) are available without decoding the event.
+     *
+     * @return decoded event, or null for an error record
+     */
     public Event event() {
+        Event event = this.event;
+        if (event == null && exception == null) {
+            event = parseEvent();
+            this.event = event;
+        }
+        return event;
+    }
+
+    /**
+     * System properties of this record, for filtering records without decoding the event
+     *
+     * @return lazily decoded System properties, or null for an error record
+     */
+    public EventSystem system() {
+        return buf == null ? null : BinXmlParser.system(buf, binXmlOffset(), binXmlSize, templateCache, chunkOffset);
+    }
+
+    // event if it is already decoded, otherwise null
+    Event decodedEvent() {
         return event;
     }
 
+    /**
+     * Renders the event of this record as xml into the given sink
+     *
+     * @param out sink for the xml
+     * @throws IOException if the sink throws it
+     */
+    public void xml(Appendable out) throws IOException {
+        new BinXmlParser(buf, binXmlOffset(), binXmlSize, templateCache, chunkOffset).xml(out);
+    }
+
+    /**
+     * Bookmark of this record, to resume a subscription after it
+     *
+     * @return bookmark, or null for an error record
+     */
+    public EventBookmark bookmark() {
+        if (buf == null) {
+            return null;
+        }
+        return chunkOffset == -1
+                ? EventBookmark.decode(buf, offset + bookmarkOffset)
+                : new EventBookmark(new long[] { recordId }, 0, false);
+    }
+
+    /**
+     * Raw bytes of this record (header, BinXml and bookmark) as received from the server,
+     * or as in the EVTX file
+     *
+     * @return a copy of the record bytes
+     */
+    public byte[] bytes() {
+        return buf == null ? null : Arrays.copyOfRange(buf, offset, offset + length);
+    }
+
     private Event parseEvent() {
-        BinXmlParser parser = new BinXmlParser(buf, binXmlOffset(), binXmlSize);
+        BinXmlParser parser = new BinXmlParser(buf, binXmlOffset(), binXmlSize, templateCache, chunkOffset);
+        if (!XML_DECODER) {
+            return parser.event(EventDecoderRegistry.getDefault(), projection);
+        }
+
         String xml = parser.xml();
         try(Reader reader = new StringReader(xml)) {
-            return Event.event(reader);
+            return Event.event(reader, EventDecoderRegistry.getDefault(), projection);
         } catch (XMLStreamException | IOException e) {
             e.printStackTrace();
         }
@@ -0,0 +1,147 @@
+/**
+ * Copyright 2020 Jitendra Kotamraju.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcifs.dcerpc.msrpc.eventing;
+
+import java.time.Instant;
+
+/**
+ * Commonly filtered System properties of an event record, read directly from the
+ * template substitution values. A property is decoded only when it is accessed,
+ * and the rest of the event is not decoded at all. So it is cheap to drop records
+ * using these properties, before the Event is materialized. A property whose value
+ * has an unexpected type is treated as not present, the Event still has its value.
+ *
+ * @author Jitendra Kotamraju
+ */
+public class EventSystem {
+    static final int PROVIDER = 0;
+    static final int EVENT_ID = 1;
+    static final int LEVEL = 2;
+    static final int KEYWORDS = 3;
+    static final int TIME_CREATED = 4;
+    static final int FIELDS = 5;
+
+    private final Binding binding;
+    private final byte[] buf;
+    private final int[] valueOffsets = new int[FIELDS];
+    private final int[] valueLengths = new int[FIELDS];
+    private final byte[] valueTypes = new byte[FIELDS];
+
+    EventSystem(Binding binding, byte[] buf) {
+        this.binding = binding;
+        this.buf = buf;
+    }
+
+    // Called for each substitution value of the record, remembers only the bound values
+    void value(int index, byte valueType, int valueOffset, int valueByteLength) {
+        for (int i = 0; i < FIELDS; i++) {
+            if (binding.index[i] == index) {
+                valueTypes[i] = valueType;
+                valueOffsets[i] = valueOffset;
+                valueLengths[i] = valueByteLength;
+            }
+        }
+    }
+
+    /**
+     * @return Provider's Name, or null if it is not present
+     */
+    public String provider() {
+        if (binding.literal[PROVIDER] != null) {
+            return binding.literal[PROVIDER];
+        }
+        return present(PROVIDER) && BinXmlParser.isStringType(valueTypes[PROVIDER])
+                ? BinXmlParser.stringValue(valueTypes[PROVIDER], buf, valueOffsets[PROVIDER], valueLengths[PROVIDER])
+                : null;
+    }
+
+    /**
+     * @return EventID, or -1 if it is not present
+     */
+    public int eventId() {
+        return (int) number(EVENT_ID, -1);
+    }
+
+    /**
+     * @return Level, or -1 if it is not present
+     */
+    public int level() {
+        return (int) number(LEVEL, -1);
+    }
+
+    /**
+     * @return Keywords bit mask, or 0 if it is not present
+     */
+    public long keywords() {
+        if (binding.literal[KEYWORDS] != null) {
+            String keywords = binding.literal[KEYWORDS];
+            return keywords.startsWith("0x")
+                    ? Long.parseUnsignedLong(keywords.substring(2), 16)
+                    : Long.parseUnsignedLong(keywords);
+        }
+        return present(KEYWORDS) && BinXmlParser.isNumberType(valueTypes[KEYWORDS])
+                ? BinXmlParser.numberValue(valueTypes[KEYWORDS], buf, valueOffsets[KEYWORDS])
+                : 0;
+    }
+
+    /**
+     * @return TimeCreated's SystemTime as nanoseconds since 1970-01-01T00:00:00Z,
+     *         or Long.MIN_VALUE if it is not present
+     */
+    public long timeCreated() {
+        if (binding.literal[TIME_CREATED] != null) {
+            Instant instant = Instant.parse(binding.literal[TIME_CREATED]);
+            return instant.getEpochSecond() * 1_000_000_000L + instant.getNano();
+        }
+        if (!present(TIME_CREATED) || !BinXmlParser.isFileTimeType(valueTypes[TIME_CREATED])) {
+            return Long.MIN_VALUE;
+        }
+        long fileTime = BinXmlParser.numberValue(valueTypes[TIME_CREATED], buf, valueOffsets[TIME_CREATED]);
+        return BinXmlParser.fileTimeNanos(fileTime);
+    }
+
+    private long number(int field, long absent) {
+        if (binding.literal[field] != null) {
+            return Long.parseLong(binding.literal[field]);
+        }
+        return present(field) && BinXmlParser.isNumberType(valueTypes[field])
+                ? BinXmlParser.numberValue(valueTypes[field], buf, valueOffsets[field])
+                : absent;
+    }
+
+    private boolean present(int field) {
+        return binding.index[field] != -1 && valueLengths[field] != 0;
+    }
+
+    @Override
+    public String toString() {
+        return "(provider=" + provider() +
+                ", eventId=" + eventId() +
+                ", level=" + level() +
+                ", keywords=0x" + Long.toHexString(keywords()) +
+                ", timeCreated=" + timeCreated() +
+                ")";
+    }
+
+    /*
+     * Where the System properties are in a template: either the substitution index
+     * of the value, or the literal text in the template. Computed once per template.
+     */
+    static final class Binding {
+        final int[] index = { -1, -1, -1, -1, -1 };
+        final String[] literal = new String[FIELDS];
+    }
+}
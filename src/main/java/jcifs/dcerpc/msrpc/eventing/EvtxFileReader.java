@@ -0,0 +1,246 @@
+/**
+ * Copyright 2020 Jitendra Kotamraju.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcifs.dcerpc.msrpc.eventing;
+
+import jcifs.util.Encdec;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads the event records of an EVTX file (for e.g. exported with wevtutil or the
+ * Event Viewer), without a Windows machine. The file is memory-mapped, and its 64 KB
+ * chunks are decoded in parallel: each chunk is self-contained, with its own name and
+ * template tables, so a chunk is a unit of work. The records are the same EventRecord
+ * objects as the ones received from a server, and their events are decoded when the
+ * chunk is decoded. A record whose event cannot be decoded doesn't stop the read, its
+ * event() throws the decoding failure.
+ *
+ * <pre>
+ *     try (EvtxFileReader reader = new EvtxFileReader(Paths.get("Security.evtx"))) {
+ *         reader.stream().map(EventRecord::event).forEach(...);
+ *     }
+ * </pre>
+ *
+ * @author Jitendra Kotamraju
+ */
+public class EvtxFileReader implements Iterable<EventRecord>, Closeable {
+    private static final byte[] FILE_SIGNATURE = "ElfFile\0".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CHUNK_SIGNATURE = "ElfChnk\0".getBytes(StandardCharsets.US_ASCII);
+    private static final int FILE_HEADER_SIZE = 0x1000;
+    private static final int CHUNK_SIZE = 0x10000;
+    private static final int CHUNK_HEADER_SIZE = 0x200;     // header, string and template tables
+    private static final int RECORD_SIGNATURE = 0x00002a2a;
+    private static final int SEGMENT_CHUNKS = 16 * 1024;    // chunks of a mapping, 1 GB
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] segments;              // mappings of the chunks
+    private final int[] chunks;                             // chunk numbers, oldest records first
+
+    private Executor executor = ForkJoinPool.commonPool();
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private EventProjection projection = EventProjection.ALL;
+
+    /**
+     * Opens and maps an EVTX file
+     *
+     * @param path path of the file
+     * @throws IOException if the file cannot be read, or is not an EVTX file
+     */
+    public EvtxFileReader(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(FILE_SIGNATURE.length);
+            if (size < FILE_HEADER_SIZE || channel.read(header, 0) != header.capacity()
+                    || !signature(header, 0, FILE_SIGNATURE)) {
+                throw new IOException("Not an EVTX file: " + path);
+            }
+
+            long count = (size - FILE_HEADER_SIZE) / CHUNK_SIZE;
+            segments = new MappedByteBuffer[(int) ((count + SEGMENT_CHUNKS - 1) / SEGMENT_CHUNKS)];
+            for (int i = 0; i < segments.length; i++) {
+                long chunksInSegment = Math.min(SEGMENT_CHUNKS, count - (long) i * SEGMENT_CHUNKS);
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        FILE_HEADER_SIZE + (long) i * SEGMENT_CHUNKS * CHUNK_SIZE, chunksInSegment * CHUNK_SIZE);
+                segments[i].order(ByteOrder.LITTLE_ENDIAN);
+            }
+            chunks = usedChunks((int) count);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Chunks that are in use (a file is preallocated), in the order of their first record ids
+    private int[] usedChunks(int count) {
+        List<long[]> used = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ByteBuffer segment = segments[i / SEGMENT_CHUNKS];
+            int start = (i % SEGMENT_CHUNKS) * CHUNK_SIZE;
+            if (signature(segment, start, CHUNK_SIGNATURE)) {
+                used.add(new long[] { segment.getLong(start + 0x18), i });     // first event record identifier
+            }
+        }
+        used.sort(Comparator.comparingLong(chunk -> chunk[0]));
+        return used.stream().mapToInt(chunk -> (int) chunk[1]).toArray();
+    }
+
+    private static boolean signature(ByteBuffer file, int offset, byte[] signature) {
+        for (int i = 0; i < signature.length; i++) {
+            if (file.get(offset + i) != signature[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param executor executor that decodes the chunks, ForkJoinPool.commonPool() by default
+     * @param parallelism number of chunks that are decoded ahead of the iteration,
+     *                    the number of processors by default
+     */
+    public void setExecutor(Executor executor, int parallelism) {
+        this.executor = executor;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Sets the EventData values that are decoded for typed events
+     *
+     * @param projection EventData values that are needed, EventProjection.ALL by default
+     */
+    public void setProjection(EventProjection projection) {
+        this.projection = projection;
+    }
+
+    /**
+     * @return number of chunks that have records
+     */
+    public int chunks() {
+        return chunks.length;
+    }
+
+    /**
+     * Decodes the records of a chunk
+     *
+     * @param index index of the chunk, in the order of the records
+     * @return records of the chunk, with their events decoded (except the ones that fail)
+     */
+    public List<EventRecord> readChunk(int index) {
+        int no = chunks[index];
+        ByteBuffer view = segments[no / SEGMENT_CHUNKS].duplicate();
+        view.position((no % SEGMENT_CHUNKS) * CHUNK_SIZE);
+        byte[] chunk = new byte[CHUNK_SIZE];
+        view.get(chunk);
+
+        // each chunk has its own templates, referenced by their offset in the chunk
+        BinXmlTemplateCache templates = new BinXmlTemplateCache(Integer.MAX_VALUE);
+        int freeSpaceOffset = Encdec.dec_uint32le(chunk, 0x30);
+        List<EventRecord> records = new ArrayList<>();
+        for (int offset = CHUNK_HEADER_SIZE; offset + 24 < freeSpaceOffset; ) {
+            int size = Encdec.dec_uint32le(chunk, offset + 4);
+            if (Encdec.dec_uint32le(chunk, offset) != RECORD_SIGNATURE || size < 28
+                    || offset + size > CHUNK_SIZE) {
+                break;
+            }
+            EventRecord record = EventRecord.evtx(chunk, offset, 0, templates, projection);
+            try {
+                record.event();
+            } catch (RuntimeException e) {
+                // not decoded, the caller gets the same exception when it asks for the event
+            }
+            records.add(record);
+            offset += size;
+        }
+        return records;
+    }
+
+    /**
+     * Iterates over the records of all the chunks, the next chunks are decoded in parallel
+     */
+    @Override
+    public Iterator<EventRecord> iterator() {
+        return new Iterator<EventRecord>() {
+            private final Deque<CompletableFuture<List<EventRecord>>> ahead = new ArrayDeque<>();
+            private int next;                   // next chunk to submit
+            private Iterator<EventRecord> records = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!records.hasNext()) {
+                    while (next < chunks.length && ahead.size() < Math.max(1, parallelism)) {
+                        int index = next++;
+                        ahead.add(CompletableFuture.supplyAsync(() -> readChunk(index), executor));
+                    }
+                    if (ahead.isEmpty()) {
+                        return false;
+                    }
+                    try {
+                        records = ahead.poll().join().iterator();
+                    } catch (CompletionException e) {
+                        throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public EventRecord next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return records.next();
+            }
+        };
+    }
+
+    /**
+     * @return sequential stream of the records, in the order of the records
+     */
+    public Stream<EventRecord> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator(),
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
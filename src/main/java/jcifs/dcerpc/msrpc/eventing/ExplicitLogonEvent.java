@@ -0,0 +1,94 @@
+/**
+ * Copyright 2020 Jitendra Kotamraju.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcifs.dcerpc.msrpc.eventing;
+
+/**
+   https://docs.microsoft.com/en-us/windows/security/threat-protection/auditing/event-4648
+   A logon was attempted using explicit credentials
+   ...
+   <EventData>
+   <Data Name="SubjectUserSid">S-1-5-18</Data>
+   <Data Name="SubjectUserName">WIN-GG82ULGC9GO$</Data>
+   <Data Name="SubjectDomainName">WORKGROUP</Data>
+   <Data Name="SubjectLogonId">0x3e7</Data>
+   ...
+
+ * @author Jitendra Kotamraju
+ */
+public class ExplicitLogonEvent extends Event {
+    public final String subjectUserSid;
+    public final String subjectUserName;
+    public final String subjectDomainName;
+    public final String subjectLogonId;
+    public final String logonGuid;
+    public final String targetUserName;
+    public final String targetDomainName;
+    public final String targetLogonGuid;
+    public final String targetServerName;
+    public final String targetInfo;
+    public final String logonProcessId;
+    public final String processName;
+    public final String ipAddress;
+    public final int ipPort;
+
+    static final String[] NAMES = {
+            "SubjectUserSid",
+            "SubjectUserName",
+            "SubjectDomainName",
+            "SubjectLogonId",
+            "LogonGuid",
+            "TargetUserName",
+            "TargetDomainName",
+            "TargetLogonGuid",
+            "TargetServerName",
+            "TargetInfo",
+            "ProcessId",
+            "ProcessName",
+            "IpAddress",
+            "IpPort"
+    };
+
+    protected ExplicitLogonEvent(Event system, EventData data) {
+        super(system);
+
+        subjectUserSid = data.string(0);
+        subjectUserName = data.string(1);
+        subjectDomainName = data.string(2);
+        subjectLogonId = data.string(3);
+        logonGuid = data.string(4);
+        targetUserName = data.string(5);
+        targetDomainName = data.string(6);
+        targetLogonGuid = data.string(7);
+        targetServerName = data.string(8);
+        targetInfo = data.string(9);
+        logonProcessId = data.string(10);
+        processName = data.string(11);
+        ipAddress = data.string(12);
+        ipPort = data.intValue(13);
+    }
+
+    @Override
+    public String toString() {
+        return "ExplicitLogonEvent{" +
+                "subjectUserName='" + subjectUserName + '\'' +
+                ", targetUserName='" + targetUserName + '\'' +
+                ", targetDomainName='" + targetDomainName + '\'' +
+                ", targetServerName='" + targetServerName + '\'' +
+                ", ipAddress='" + ipAddress + '\'' +
+                ", ipPort=" + ipPort +
+                '}';
+    }
+}
@@ -0,0 +1,286 @@
+/**
+ * Copyright 2020 Jitendra Kotamraju.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcifs.dcerpc.msrpc.eventing;
+
+import jcifs.util.ThreadFactories;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Checkpoint store in an append-only local file, a line per saved bookmark. The saves
+ * are group committed: they are appended and forced to the disk together every commit
+ * interval (or on flush() and close()), so a watcher doesn't wait for the disk after
+ * every batch. A crash loses at most the saves of the last interval, and the watcher
+ * then gets those events again. The last line for a host and channel wins, and a torn
+ * last line is ignored. The file is compacted to one line per host and channel when
+ * it has grown well beyond that.
+ *
+ * <pre>
+ *     EventLogCheckpointStore store = new FileCheckpointStore(Paths.get("eventlog.checkpoints"), 1, TimeUnit.SECONDS);
+ *     watcher.setCheckpointStore(store);
+ * </pre>
+ *
+ * @author Jitendra Kotamraju
+ */
+public class FileCheckpointStore implements EventLogCheckpointStore {
+    private static final int COMPACT_MIN_LINES = 1024;
+
+    private final Path file;
+    private final ReentrantLock lock = new ReentrantLock();            // bookmarks and pending
+    private final ReentrantLock writeLock = new ReentrantLock();       // file, one commit at a time
+    private final Map<String, String> bookmarks = new HashMap<>();
+    private Map<String, String> pending = new LinkedHashMap<>();
+    private final ScheduledExecutorService committer;
+    private FileChannel channel;
+    private int lines;
+    private IOException failure;
+
+    /**
+     * @param file checkpoint file, created if it doesn't exist
+     * @param commitInterval interval of the group commits, 0 to commit every save
+     * @param unit unit of the interval
+     * @throws IOException if the file cannot be read or opened
+     */
+    public FileCheckpointStore(Path file, long commitInterval, TimeUnit unit) throws IOException {
+        this.file = file;
+        if (Files.exists(file)) {
+            read();
+        }
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        if (commitInterval > 0) {
+            committer = Executors.newSingleThreadScheduledExecutor(
+                    ThreadFactories.newThreadFactory("FileCheckpointStore", true));
+            committer.scheduleWithFixedDelay(this::commit, commitInterval, commitInterval, unit);
+        } else {
+            committer = null;
+        }
+    }
+
+    private void read() throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        int length = bytes.length;
+        while (length > 0 && bytes[length - 1] != '\n') {
+            length--;
+        }
+        String content = new String(bytes, 0, length, StandardCharsets.UTF_8);
+        int start = 0;
+        int end;
+        while ((end = content.indexOf('\n', start)) != -1) {
+            String[] fields = content.substring(start, end).split("\t", -1);
+            if (fields.length == 3) {
+                bookmarks.put(key(unescape(fields[0]), unescape(fields[1])), unescape(fields[2]));
+                lines++;
+            }
+            start = end + 1;
+        }
+
+        if (length < bytes.length) {
+            // a torn last line of a crash, the next line would be appended to it
+            try (FileChannel torn = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                torn.truncate(length);
+            }
+        }
+    }
+
+    @Override
+    public String load(String host, String channel) {
+        lock.lock();
+        try {
+            return bookmarks.get(key(host, channel));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void save(String host, String channel, String bookmarkXml) throws IOException {
+        lock.lock();
+        try {
+            if (failure != null) {
+                throw failure;
+            }
+            String key = key(host, channel);
+            bookmarks.put(key, bookmarkXml);
+            pending.put(key, bookmarkXml);
+        } finally {
+            lock.unlock();
+        }
+        if (committer == null) {
+            flush();
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writeLock.lock();
+        try {
+            Map<String, String> batch;
+            lock.lock();
+            try {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = pending;
+                pending = new LinkedHashMap<>();
+            } finally {
+                lock.unlock();
+            }
+
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<String, String> entry : batch.entrySet()) {
+                line(entry.getKey(), entry.getValue(), sb);
+            }
+            write(channel, sb);
+            channel.force(false);
+            lines += batch.size();
+
+            int live = size();
+            if (lines > COMPACT_MIN_LINES && lines > 4 * live) {
+                compact();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Rewrites the file with the current bookmarks, with writeLock held
+    private void compact() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int count;
+        lock.lock();
+        try {
+            for (Map.Entry<String, String> entry : bookmarks.entrySet()) {
+                line(entry.getKey(), entry.getValue(), sb);
+            }
+            count = bookmarks.size();
+        } finally {
+            lock.unlock();
+        }
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(out, sb);
+            out.force(false);
+        }
+        channel.close();
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        lines = count;
+    }
+
+    // Group commit of the background thread, a failure is thrown from the next save
+    private void commit() {
+        try {
+            flush();
+        } catch (IOException e) {
+            lock.lock();
+            try {
+                failure = e;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return number of hosts and channels that have a bookmark
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return bookmarks.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Commits the pending saves and closes the file
+     */
+    @Override
+    public void close() throws IOException {
+        if (committer != null) {
+            committer.shutdown();
+        }
+        try {
+            flush();
+        } finally {
+            writeLock.lock();
+            try {
+                channel.close();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    private static void write(FileChannel channel, StringBuilder sb) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+    }
+
+    private static String key(String host, String channel) {
+        return escape(host) + '\t' + escape(channel);
+    }
+
+    // key is already escaped
+    private static void line(String key, String bookmarkXml, StringBuilder sb) {
+        sb.append(key).append('\t').append(escape(bookmarkXml)).append('\n');
+    }
+
+    private static String escape(String value) {
+        if (value.indexOf('\\') == -1 && value.indexOf('\t') == -1 && value.indexOf('\n') == -1
+                && value.indexOf('\r') == -1) {
+            return value;
+        }
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    private static String unescape(String value) {
+        if (value.indexOf('\\') == -1) {
+            return value;
+        }
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            if (ch == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                sb.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                sb.append(ch);
+            }
+        }
+        return sb.toString();
+    }
+}
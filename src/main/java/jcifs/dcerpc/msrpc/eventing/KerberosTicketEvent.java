@@ -0,0 +1,93 @@
+/**
+ * Copyright 2020 Jitendra Kotamraju.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcifs.dcerpc.msrpc.eventing;
+
+/**
+   https://docs.microsoft.com/en-us/windows/security/threat-protection/auditing/event-4768
+   A Kerberos authentication ticket (TGT) was requested
+   ...
+   <EventData>
+   <Data Name="TargetUserName">dadmin</Data>
+   <Data Name="TargetDomainName">CONTOSO.LOCAL</Data>
+   <Data Name="TargetSid">S-1-5-21-3457937927-2839227994-823803824-1104</Data>
+   ...
+
+ * @author Jitendra Kotamraju
+ */
+public class KerberosTicketEvent extends Event {
+    public final String targetUserName;
+    public final String targetDomainName;
+    public final String targetSid;
+    public final String serviceName;
+    public final String serviceSid;
+    public final String ticketOptions;
+    public final String status;
+    public final String ticketEncryptionType;
+    public final String preAuthType;
+    public final String ipAddress;
+    public final int ipPort;
+    public final String certIssuerName;
+    public final String certSerialNumber;
+    public final String certThumbprint;
+
+    static final String[] NAMES = {
+            "TargetUserName",
+            "TargetDomainName",
+            "TargetSid",
+            "ServiceName",
+            "ServiceSid",
+            "TicketOptions",
+            "Status",
+            "TicketEncryptionType",
+            "PreAuthType",
+            "IpAddress",
+            "IpPort",
+            "CertIssuerName",
+            "CertSerialNumber",
+            "CertThumbprint"
+    };
+
+    protected KerberosTicketEvent(Event system, EventData data) {
+        super(system);
+
+        targetUserName = data.string(0);
+        targetDomainName = data.string(1);
+        targetSid = data.string(2);
+        serviceName = data.string(3);
+        serviceSid = data.string(4);
+        ticketOptions = data.string(5);
+        status = data.string(6);
+        ticketEncryptionType = data.string(7);
+        preAuthType = data.string(8);
+        ipAddress = data.string(9);
+        ipPort = data.intValue(10);
+        certIssuerName = data.string(11);
+        certSerialNumber = data.string(12);
+        certThumbprint = data.string(13);
+    }
+
+    @Override
+    public String toString() {
+        return "KerberosTicketEvent{" +
+                "targetUserName='" + targetUserName + '\'' +
+                ", targetDomainName='" + targetDomainName + '\'' +
+                ", serviceName='" + serviceName + '\'' +
+                ", status='" + status + '\'' +
+                ", ipAddress='" + ipAddress + '\'' +
+                ", ipPort=" + ipPort +
+                '}';
+    }
+}
@@ -15,8 +15,6 @@
  */
 package jcifs.dcerpc.msrpc.eventing;
 
-import java.util.Map;
-
 /*
    https://docs.microsoft.com/en-us/windows/security/threat-protection/auditing/event-4634
    ...
@@ -37,18 +35,22 @@ public class LogoffEvent extends Event {
     public final String targetLogonId;
     public final int logonType;
 
-    protected LogoffEvent(int eventId, int version, int level, int task, int opcode, String keywords,
-                String timeCreated, int eventRecordId, String activityId, int processId, int threadId,
-                String channel, String computer, Map<String, String> eventData) {
+    static final String[] NAMES = {
+            "TargetUserSid",
+            "TargetUserName",
+            "TargetDomainName",
+            "TargetLogonId",
+            "LogonType"
+    };
 
-        super(eventId, version, level, task, opcode, keywords, timeCreated, eventRecordId, activityId,
-                processId, threadId, channel, computer);
+    protected LogoffEvent(Event system, EventData data) {
+        super(system);
 
-        targetUserSid = eventData.get("TargetUserSid");
-        targetUserName = eventData.get("TargetUserName");
-        targetDomainName = eventData.get("TargetDomainName");
-        targetLogonId = eventData.get("TargetLogonId");
-        logonType = Integer.parseInt(eventData.getOrDefault("LogonType", "-1"));
+        targetUserSid = data.string(0);
+        targetUserName = data.string(1);
+        targetDomainName = data.string(2);
+        targetLogonId = data.string(3);
+        logonType = data.intValue(4);
     }
 
     @Override
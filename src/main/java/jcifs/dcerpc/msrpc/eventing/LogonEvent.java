@@ -15,8 +15,6 @@
  */
 package jcifs.dcerpc.msrpc.eventing;
 
-import java.util.Map;
-
 /**
    https://docs.microsoft.com/en-us/windows/security/threat-protection/auditing/event-4624
    ...
@@ -58,47 +56,66 @@ public class LogonEvent extends Event {
     public final String targetLinkedLogonId;
     public final String elevatedToken;
 
-    protected LogonEvent(int eventId, int version, int level, int task, int opcode, String keywords,
-               String timeCreated, int eventRecordId, String activityId, int processId, int threadId,
-               String channel, String computer, Map<String, String> eventData) {
-        super(eventId, version, level, task, opcode, keywords, timeCreated, eventRecordId, activityId,
-                processId, threadId, channel, computer);
+    static final String[] NAMES = {
+            "SubjectUserSid",
+            "SubjectUserName",
+            "SubjectDomainName",
+            "SubjectLogonId",
+            "TargetUserSid",
+            "TargetUserName",
+            "TargetDomainName",
+            "TargetLogonId",
+            "LogonType",
+            "LogonProcessName",
+            "AuthenticationPackageName",
+            "WorkstationName",
+            "LogonGuid",
+            "TransmittedServices",
+            "LmPackageName",
+            "KeyLength",
+            "ProcessId",
+            "ProcessName",
+            "IpAddress",
+            "IpPort",
+            "ImpersonationLevel",
+            "RestrictedAdminMode",
+            "TargetOutboundUserName",
+            "TargetOutboundDomainName",
+            "VirtualAccount",
+            "TargetLinkedLogonId",
+            "ElevatedToken"
+    };
 
-        subjectUserSid = eventData.get("SubjectUserSid");
-        subjectUserName = eventData.get("SubjectUserName");
-        subjectDomainName = eventData.get("SubjectDomainName");
-        subjectLogonId = eventData.get("SubjectLogonId");
-        targetUserSid = eventData.get("TargetUserSid");
-        targetUserName = eventData.get("TargetUserName");
-        targetDomainName = eventData.get("TargetDomainName");
-        targetLogonId = eventData.get("TargetLogonId");
-        logonType = Integer.parseInt(eventData.getOrDefault("LogonType", "-1"));
-        logonProcessName = eventData.get("LogonProcessName");
-        authenticationPackageName = eventData.get("AuthenticationPackageName");
-        workstationName = eventData.get("WorkstationName");
-        logonGuid = eventData.get("LogonGuid");
-        transmittedServices = eventData.get("TransmittedServices");
-        lmPackageName = eventData.get("LmPackageName");
-        keyLength = eventData.get("KeyLength");
-        logonProcessId = eventData.get("ProcessId");
-        processName = eventData.get("ProcessName");
-        ipAddress = eventData.get("IpAddress");
-        ipPort = parseInt(eventData.getOrDefault("IpPort", "-1"));
-        impersonationLevel = eventData.get("ImpersonationLevel");
-        restrictedAdminMode = eventData.get("RestrictedAdminMode");
-        targetOutboundUserName = eventData.get("TargetOutboundUserName");
-        targetOutboundDomainName = eventData.get("TargetOutboundDomainName");
-        virtualAccount = eventData.get("VirtualAccount");
-        targetLinkedLogonId = eventData.get("TargetLinkedLogonId");
-        elevatedToken = eventData.get("ElevatedToken");
-    }
+    protected LogonEvent(Event system, EventData data) {
+        super(system);
 
-    private int parseInt(String str) {
-        try {
-            return Integer.parseInt(str);
-        } catch (Exception e) {
-            return -1;
-        }
+        subjectUserSid = data.string(0);
+        subjectUserName = data.string(1);
+        subjectDomainName = data.string(2);
+        subjectLogonId = data.string(3);
+        targetUserSid = data.string(4);
+        targetUserName = data.string(5);
+        targetDomainName = data.string(6);
+        targetLogonId = data.string(7);
+        logonType = data.intValue(8);
+        logonProcessName = data.string(9);
+        authenticationPackageName = data.string(10);
+        workstationName = data.string(11);
+        logonGuid = data.string(12);
+        transmittedServices = data.string(13);
+        lmPackageName = data.string(14);
+        keyLength = data.string(15);
+        logonProcessId = data.string(16);
+        processName = data.string(17);
+        ipAddress = data.string(18);
+        ipPort = data.intValue(19);
+        impersonationLevel = data.string(20);
+        restrictedAdminMode = data.string(21);
+        targetOutboundUserName = data.string(22);
+        targetOutboundDomainName = data.string(23);
+        virtualAccount = data.string(24);
+        targetLinkedLogonId = data.string(25);
+        elevatedToken = data.string(26);
     }
 
     @Override
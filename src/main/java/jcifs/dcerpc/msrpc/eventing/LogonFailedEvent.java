@@ -0,0 +1,116 @@
+/**
+ * Copyright 2020 Jitendra Kotamraju.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcifs.dcerpc.msrpc.eventing;
+
+/**
+   https://docs.microsoft.com/en-us/windows/security/threat-protection/auditing/event-4625
+   An account failed to log on
+   ...
+   <EventData>
+   <Data Name="SubjectUserSid">S-1-5-18</Data>
+   <Data Name="SubjectUserName">WIN-GG82ULGC9GO$</Data>
+   <Data Name="SubjectDomainName">WORKGROUP</Data>
+   <Data Name="SubjectLogonId">0x3e7</Data>
+   ...
+
+ * @author Jitendra Kotamraju
+ */
+public class LogonFailedEvent extends Event {
+    public final String subjectUserSid;
+    public final String subjectUserName;
+    public final String subjectDomainName;
+    public final String subjectLogonId;
+    public final String targetUserSid;
+    public final String targetUserName;
+    public final String targetDomainName;
+    public final String status;
+    public final String failureReason;
+    public final String subStatus;
+    public final int logonType;
+    public final String logonProcessName;
+    public final String authenticationPackageName;
+    public final String workstationName;
+    public final String transmittedServices;
+    public final String lmPackageName;
+    public final String keyLength;
+    public final String logonProcessId;
+    public final String processName;
+    public final String ipAddress;
+    public final int ipPort;
+
+    static final String[] NAMES = {
+            "SubjectUserSid",
+            "SubjectUserName",
+            "SubjectDomainName",
+            "SubjectLogonId",
+            "TargetUserSid",
+            "TargetUserName",
+            "TargetDomainName",
+            "Status",
+            "FailureReason",
+            "SubStatus",
+            "LogonType",
+            "LogonProcessName",
+            "AuthenticationPackageName",
+            "WorkstationName",
+            "TransmittedServices",
+            "LmPackageName",
+            "KeyLength",
+            "ProcessId",
+            "ProcessName",
+            "IpAddress",
+            "IpPort"
+    };
+
+    protected LogonFailedEvent(Event system, EventData data) {
+        super(system);
+
+        subjectUserSid = data.string(0);
+        subjectUserName = data.string(1);
+        subjectDomainName = data.string(2);
+        subjectLogonId = data.string(3);
+        targetUserSid = data.string(4);
+        targetUserName = data.string(5);
+        targetDomainName = data.string(6);
+        status = data.string(7);
+        failureReason = data.string(8);
+        subStatus = data.string(9);
+        logonType = data.intValue(10);
+        logonProcessName = data.string(11);
+        authenticationPackageName = data.string(12);
+        workstationName = data.string(13);
+        transmittedServices = data.string(14);
+        lmPackageName = data.string(15);
+        keyLength = data.string(16);
+        logonProcessId = data.string(17);
+        processName = data.string(18);
+        ipAddress = data.string(19);
+        ipPort = data.intValue(20);
+    }
+
+    @Override
+    public String toString() {
+        return "LogonFailedEvent{" +
+                "targetUserName='" + targetUserName + '\'' +
+                ", targetDomainName='" + targetDomainName + '\'' +
+                ", status='" + status + '\'' +
+                ", subStatus='" + subStatus + '\'' +
+                ", logonType=" + logonType +
+                ", ipAddress='" + ipAddress + '\'' +
+                ", ipPort=" + ipPort +
+                '}';
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright 2020 Jitendra Kotamraju.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcifs.dcerpc.msrpc.eventing;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+ * Delay before a watcher subscribes again after a failure. The ceiling doubles with
+ * every failed attempt up to the max, and the delay is uniformly random below the
+ * ceiling ("full jitter"). So the watchers of many hosts that failed together (for
+ * e.g. the collector's network went down) don't reconnect in lockstep, and the first
+ * attempts after a short outage are quick. Used by only one watcher, not thread-safe.
+ *
+ * @author Jitendra Kotamraju
+ */
+class ReconnectBackoff {
+    private final long initialMillis;
+    private final long maxMillis;
+    private int attempts;
+
+    ReconnectBackoff(long initialMillis, long maxMillis) {
+        if (initialMillis <= 0 || maxMillis < initialMillis) {
+            String msg = String.format("Invalid backoff range [%d, %d] ms", initialMillis, maxMillis);
+            throw new IllegalArgumentException(msg);
+        }
+        this.initialMillis = initialMillis;
+        this.maxMillis = maxMillis;
+    }
+
+    // Delay of the next attempt in milliseconds
+    long next() {
+        long ceiling = Math.min(maxMillis, initialMillis * (1L << Math.min(attempts, 30)));
+        attempts++;
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    // A subscription succeeded
+    void reset() {
+        attempts = 0;
+    }
+
+    int attempts() {
+        return attempts;
+    }
+}
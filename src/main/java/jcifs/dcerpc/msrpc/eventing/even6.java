@@ -19,6 +19,8 @@ import jcifs.dcerpc.*;
 import jcifs.dcerpc.ndr.*;
 import jcifs.dcerpc.rpc.policy_handle;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Arrays;
 
 /*
@@ -34,7 +36,7 @@ public class even6 {
 
     public static final int MAX_PAYLOAD = 2 * 1024 * 1024;
 
-    private static final int MAX_RPC_RECORD_COUNT = 1024;
+    public static final int MAX_RPC_RECORD_COUNT = 1024;
     private static final int MAX_RPC_BATCH_SIZE = MAX_PAYLOAD;
 
     // Evt Path Flags
@@ -104,9 +106,9 @@ public class even6 {
 
     // 3.1.4.12 EvtRpcRegisterLogQuery (Opnum 5)
     public static class EvtRpcRegisterLogQuery extends RegisterRequest {
-        private final String channelPath;
-        private final String query;
-        private final int flags;
+        public final String channelPath;
+        public final String query;
+        public final int flags;
 
         public int getOpnum() { return 5; }
 
@@ -268,6 +270,11 @@ public class even6 {
             this.ptype = 0;
         }
 
+        // Another request for the same subscription
+        public EvtRpcRemoteSubscriptionWaitAsync copy() {
+            return new EvtRpcRemoteSubscriptionWaitAsync(handle);
+        }
+
         @Override
         public int getOpnum() { return 3; }
 
@@ -371,7 +378,7 @@ public class even6 {
         }
     }
 
-    private static abstract class EventResponse extends DcerpcMessage {
+    public static abstract class EventResponse extends DcerpcMessage {
         protected final policy_handle handle;
         public final int numRequestedRecords;
 
@@ -409,13 +416,8 @@ public class even6 {
                             numActualRecords, _eventDataIndicess);
                     throw new NdrException(msg);
                 }
-                int _eventDataIndicesi = _src.index;
-                _src.advance(4 * _eventDataIndicess);
                 eventDataIndices = new int[_eventDataIndicess];
-                _src = _src.derive(_eventDataIndicesi);
-                for (int _i = 0; _i < _eventDataIndicess; _i++) {
-                    eventDataIndices[_i] = _src.dec_ndr_long();
-                }
+                dec_ndr_longs(_src, eventDataIndices);
             }
 
             int _eventDataSizesp = _src.dec_ndr_long();
@@ -426,13 +428,8 @@ public class even6 {
                             numActualRecords, _eventDataSizess);
                     throw new NdrException(msg);
                 }
-                int _eventDataSizesi = _src.index;
-                _src.advance(4 * _eventDataSizess);
                 eventDataSizes = new int[_eventDataSizess];
-                _src = _src.derive(_eventDataSizesi);
-                for (int _i = 0; _i < _eventDataSizess; _i++) {
-                    eventDataSizes[_i] = _src.dec_ndr_long();
-                }
+                dec_ndr_longs(_src, eventDataSizes);
             }
 
             resultBufferSize = _src.dec_ndr_long();
@@ -444,20 +441,28 @@ public class even6 {
                     String msg = String.format("resultBufferSize=%d _resultBuffers=%d", resultBufferSize, _resultBuffers);
                     throw new NdrException(msg);
                 }
-                int _resultBufferi = _src.index;
-                _src.advance(1 * _resultBuffers);
+                // The stub buffer goes back to BufferCache after decoding, so the
+                // events cannot be a view of it. Copy them out in one go.
                 resultBuffer = new byte[_resultBuffers];
-                _src = _src.derive(_resultBufferi);
-                for (int _i = 0; _i < _resultBuffers; _i++) {
-                    resultBuffer[_i] = (byte) _src.dec_ndr_small();
-                }
+                _src.readOctetArray(resultBuffer, 0, _resultBuffers);
             }
-            // TODO following work ?
-            // System.arraycopy(_src.getBuffer(), _src.index, resultBuffer, 0, _resultBuffers);
 
             retVal = _src.dec_ndr_long();
         }
 
+        // conformant array of longs in a single pass
+        private static void dec_ndr_longs(NdrBuffer _src, int[] values) throws NdrException {
+            _src.align(4);
+            if (_src.getTailSpace() < 4 * values.length) {
+                throw new NdrException(NdrException.INVALID_CONFORMANCE);
+            }
+            ByteBuffer.wrap(_src.getBuffer(), _src.getIndex(), 4 * values.length)
+                    .order(ByteOrder.LITTLE_ENDIAN)
+                    .asIntBuffer()
+                    .get(values);
+            _src.advance(4 * values.length);
+        }
+
         @Override
         public String toString() {
             return "events = " + numActualRecords +
@@ -0,0 +1,110 @@
+/**
+ * Copyright 2020 Jitendra Kotamraju.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcifs.util;
+
+import jcifs.Config;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread factories for the threads that mostly block on socket reads (transport
+ * readers, event log watchers). When the jcifs.util.virtualThreads property is true
+ * and the JVM supports virtual threads (Java 21+), the threads are virtual threads,
+ * otherwise they are daemon or non-daemon platform threads as before.
+ *
+ * @author Jitendra Kotamraju
+ */
+public final class ThreadFactories {
+    private static final boolean VIRTUAL = Config.getBoolean("jcifs.util.virtualThreads", false);
+    private static final Method OF_VIRTUAL = method(Thread.class, "ofVirtual");
+    // on the public Thread.Builder interface, its implementations are not accessible
+    private static final Method NAME = method(builder(), "name", String.class);
+    private static final Method UNSTARTED = method(builder(), "unstarted", Runnable.class);
+
+    private ThreadFactories() {
+    }
+
+    /**
+     * @return true if the threads are created as virtual threads
+     */
+    public static boolean isVirtual() {
+        return VIRTUAL && OF_VIRTUAL != null && NAME != null && UNSTARTED != null;
+    }
+
+    /**
+     * Creates a factory of threads named prefix-0, prefix-1, ...
+     *
+     * @param prefix name prefix of the threads
+     * @param daemon whether platform threads are daemon threads (virtual threads always are)
+     * @return thread factory as per jcifs.util.virtualThreads
+     */
+    public static ThreadFactory newThreadFactory(String prefix, boolean daemon) {
+        AtomicInteger no = new AtomicInteger();
+        return r -> newThread(r, prefix + "-" + no.getAndIncrement(), daemon);
+    }
+
+    /**
+     * Creates an unstarted thread as per jcifs.util.virtualThreads
+     *
+     * @param task task of the thread
+     * @param name name of the thread
+     * @param daemon whether a platform thread is a daemon thread
+     * @return unstarted thread
+     */
+    public static Thread newThread(Runnable task, String name, boolean daemon) {
+        Thread thread = isVirtual() ? newVirtualThread(task, name) : null;
+        if (thread == null) {
+            thread = new Thread(task, name);
+            thread.setDaemon(daemon);
+        }
+        return thread;
+    }
+
+    // Thread.ofVirtual().name(name).unstarted(task), or null if the JVM has no virtual threads
+    static Thread newVirtualThread(Runnable task, String name) {
+        if (OF_VIRTUAL == null || NAME == null || UNSTARTED == null) {
+            return null;
+        }
+        try {
+            Object builder = OF_VIRTUAL.invoke(null);
+            builder = NAME.invoke(builder, name);
+            return (Thread) UNSTARTED.invoke(builder, task);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot create a virtual thread", e);
+        }
+    }
+
+    private static Class<?> builder() {
+        try {
+            return Class.forName("java.lang.Thread$Builder");
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+    private static Method method(Class<?> cls, String name, Class<?>... parameterTypes) {
+        if (cls == null) {
+            return null;
+        }
+        try {
+            return cls.getMethod(name, parameterTypes);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
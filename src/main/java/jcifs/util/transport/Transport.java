@@ -4,6 +4,7 @@ import java.io.*;
 import java.net.*;
 import java.util.*;
 import jcifs.util.LogStream;
+import jcifs.util.ThreadFactories;
 
 /**
  * This class simplifies communication for protocols that support
@@ -160,8 +161,7 @@ public abstract class Transport implements Runnable {
 
             state = 1;
             te = null;
-            thread = new Thread( this, name );
-            thread.setDaemon( true );
+            thread = ThreadFactories.newThread( this, name, true );
 
             synchronized (thread) {
                 thread.start();
@@ -0,0 +1,81 @@
+/**
+ * Copyright 2020 Jitendra Kotamraju.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcifs.dcerpc.msrpc.eventing;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * @author Jitendra Kotamraju
+ */
+public class AdaptiveBatchSizeTest {
+
+    @Test
+    public void growsWhileFull() {
+        AdaptiveBatchSize size = new AdaptiveBatchSize(5, 1024, 1024 * 1024);
+        int pulls = 0;
+        int backlog = 200_000;
+        while (backlog > 0) {
+            int requested = size.next();
+            int received = Math.min(requested, backlog);
+            size.update(requested, received, received * 500);
+            backlog -= received;
+            pulls++;
+        }
+        // 5, 10, ..., 640 then 1024 records per pull, instead of 40000 pulls of 5 records
+        assertTrue(pulls < 250);
+    }
+
+    @Test
+    public void byteBudget() {
+        AdaptiveBatchSize size = new AdaptiveBatchSize(5, 1024, 100_000);
+        for (int i = 0; i < 20; i++) {
+            int requested = size.next();
+            size.update(requested, requested, requested * 1000);
+        }
+        assertTrue(size.next() <= 100);
+        assertTrue(size.next() >= 50);
+    }
+
+    @Test
+    public void shrinksWhenIdle() {
+        AdaptiveBatchSize size = new AdaptiveBatchSize(5, 1024, 1024 * 1024);
+        for (int i = 0; i < 10; i++) {
+            size.update(size.next(), size.next(), 1000);
+        }
+        assertEquals(1024, size.next());
+        for (int i = 0; i < 20; i++) {
+            size.update(size.next(), 0, 0);
+        }
+        assertEquals(5, size.next());
+    }
+
+    @Test
+    public void fixed() {
+        AdaptiveBatchSize size = new AdaptiveBatchSize(5, 5, 1024 * 1024);
+        size.update(5, 5, 100);
+        assertEquals(5, size.next());
+        size.update(5, 1, 100);
+        assertEquals(5, size.next());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidRange() {
+        new AdaptiveBatchSize(5, even6.MAX_RPC_RECORD_COUNT + 1, 1024);
+    }
+}
@@ -26,6 +26,8 @@ import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathFactory;
 import java.io.*;
+import java.lang.reflect.Field;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -398,6 +400,96 @@ public class BinXmlParserTest {
         }
     }
 
+    @Test
+    public void directDecoder() throws Exception {
+        assertSameEvent(DatatypeConverter.parseHexBinary(xmlTemplates));
+        for (String name : new String[] {"event-28492.bin", "event-28493.bin"}) {
+            try(InputStream in = getClass().getResourceAsStream(name)) {
+                assertSameEvent(readNBytes(in, Integer.MAX_VALUE));
+            }
+        }
+    }
+
+    @Test
+    public void streamingXml() throws Exception {
+        byte[][] bufs = new byte[3][];
+        bufs[0] = DatatypeConverter.parseHexBinary(xmlSimple);
+        bufs[1] = DatatypeConverter.parseHexBinary(xmlTemplates);
+        try(InputStream in = getClass().getResourceAsStream("event-28492.bin")) {
+            bufs[2] = readNBytes(in, Integer.MAX_VALUE);
+        }
+        for (byte[] buf : bufs) {
+            BinXmlParser parser = new BinXmlParser(buf, 0, buf.length);
+            String xml = parser.xml();
+
+            StringWriter writer = new StringWriter();
+            parser.xml(writer);
+            assertEquals(xml, writer.toString());
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            parser.xml(out);
+            assertEquals(xml, new String(out.toByteArray(), "UTF-8"));
+        }
+    }
+
+    @Test
+    public void system() throws Exception {
+        byte[] buf = DatatypeConverter.parseHexBinary(xmlTemplates);
+        EventSystem system = BinXmlParser.system(buf, 0, buf.length, null);
+
+        assertEquals("Microsoft-Windows-Wevttest", system.provider());
+        assertEquals(100, system.eventId());
+        assertEquals(1, system.level());
+        assertEquals(0x4000000000e00000L, system.keywords());
+    }
+
+    @Test
+    public void templateCache() throws Exception {
+        byte[] buf;
+        try(InputStream in = getClass().getResourceAsStream("event-28492.bin")) {
+            buf = readNBytes(in, Integer.MAX_VALUE);
+        }
+        String xml = new BinXmlParser(buf, 0, buf.length).xml();
+
+        BinXmlTemplateCache cache = new BinXmlTemplateCache();
+        assertEquals(xml, new BinXmlParser(buf, 0, buf.length, cache).xml());
+        long templates = cache.misses();        // including templates of nested BinXml values
+        assertEquals(0, cache.hits());
+        assertEquals(templates, cache.size());
+
+        assertEquals(xml, new BinXmlParser(buf, 0, buf.length, cache).xml());
+        assertEquals(templates, cache.hits());
+        assertEquals(templates, cache.misses());
+    }
+
+    @Test
+    public void typedValues() throws Exception {
+        BinXmlParser.ValueEntry entry = new BinXmlParser.ValueEntry(2);
+        entry.setValueType((byte) 0x06);                // UInt16
+        entry.setRaw(new byte[] {(byte) 0xff, (byte) 0xff}, 0);
+        assertEquals(0xffff, entry.longValue());
+        assertEquals("65535", entry.text());
+
+        try(InputStream in = getClass().getResourceAsStream("event-28492.bin")) {
+            byte[] buf = readNBytes(in, Integer.MAX_VALUE);
+            Event event = new BinXmlParser(buf, 0, buf.length).event();
+            Instant timeCreated = Instant.parse(event.timeCreated);
+            assertEquals(timeCreated.getEpochSecond() * 1_000_000_000L + timeCreated.getNano(), event.timeCreatedNanos);
+        }
+    }
+
+    // BinXml -> Event must be same as BinXml -> xml -> Event
+    private void assertSameEvent(byte[] buf) throws Exception {
+        BinXmlParser parser = new BinXmlParser(buf, 0, buf.length);
+        Event expected = Event.event(new StringReader(parser.xml()));
+        Event actual = parser.event();
+
+        assertEquals(expected.getClass(), actual.getClass());
+        for (Field field : expected.getClass().getFields()) {
+            assertEquals(field.getName(), field.get(expected), field.get(actual));
+        }
+    }
+
     // JDK9's InputStream#readNBytes
     private byte[] readNBytes(InputStream in, int len) throws IOException {
         int DEFAULT_BUFFER_SIZE = 8192;
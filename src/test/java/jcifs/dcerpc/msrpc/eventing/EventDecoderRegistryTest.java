@@ -0,0 +1,113 @@
+/**
+ * Copyright 2020 Jitendra Kotamraju.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcifs.dcerpc.msrpc.eventing;
+
+import org.junit.Test;
+
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static jcifs.dcerpc.msrpc.eventing.EventDecoderRegistry.SECURITY_AUDITING;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/*
+ * @author Jitendra Kotamraju
+ */
+public class EventDecoderRegistryTest {
+
+    private static final String FAILED_LOGON =
+            "<Event xmlns=\"http://schemas.microsoft.com/win/2004/08/events/event\">" +
+            "<System>" +
+            "<Provider Name=\"Microsoft-Windows-Security-Auditing\" Guid=\"{54849625-5478-4994-A5BA-3E3B0328C30D}\"/>" +
+            "<EventID>4625</EventID><Version>0</Version><Level>0</Level><Task>12544</Task><Opcode>0</Opcode>" +
+            "<Keywords>0x8010000000000000</Keywords><TimeCreated SystemTime=\"2015-08-07T18:13:46.545674800Z\"/>" +
+            "<EventRecordID>430</EventRecordID><Execution ProcessID=\"516\" ThreadID=\"2512\"/>" +
+            "<Channel>Security</Channel><Computer>WIN81</Computer><Security/>" +
+            "</System>" +
+            "<EventData>" +
+            "<Data Name=\"SubjectUserSid\">S-1-5-21-1377283216-344919071-3415362939-500</Data>" +
+            "<Data Name=\"TargetUserName\">Auditor</Data>" +
+            "<Data Name=\"TargetDomainName\">WIN81</Data>" +
+            "<Data Name=\"Status\">0xc000006d</Data>" +
+            "<Data Name=\"SubStatus\">0xc000006a</Data>" +
+            "<Data Name=\"LogonType\">2</Data>" +
+            "<Data Name=\"IpAddress\">127.0.0.1</Data>" +
+            "<Data Name=\"IpPort\">0</Data>" +
+            "</EventData>" +
+            "</Event>";
+
+    @Test
+    public void failedLogon() throws Exception {
+        LogonFailedEvent event = (LogonFailedEvent) Event.event(new StringReader(FAILED_LOGON));
+
+        assertEquals(4625, event.eventId);
+        assertEquals(430, event.eventRecordId);
+        assertEquals("Auditor", event.targetUserName);
+        assertEquals("0xc000006d", event.status);
+        assertEquals("0xc000006a", event.subStatus);
+        assertEquals(2, event.logonType);
+        assertEquals("127.0.0.1", event.ipAddress);
+        assertEquals(0, event.ipPort);
+        assertNull(event.workstationName);
+    }
+
+    @Test
+    public void customDecoder() throws Exception {
+        List<String> values = new ArrayList<>();
+        EventDecoderRegistry registry = new EventDecoderRegistry();
+        registry.register(SECURITY_AUDITING, 4624, -1, EventDecoder.of(
+                new String[] {"LogonType", "NotPresent", "TargetUserName"},
+                (system, data) -> {
+                    values.add(data.intValue(0) + " " + data.string(1) + " " + data.string(2));
+                    return system;
+                }));
+
+        byte[] buf = EventRecordTest.resource("event-28492.bin");
+        Event direct = new BinXmlParser(buf, 0, buf.length).event(registry);
+        try(Reader reader = new InputStreamReader(getClass().getResourceAsStream("event-28492.xml"))) {
+            Event.event(reader, registry);
+        }
+
+        assertSame(Event.class, direct.getClass());
+        assertEquals(4624, direct.eventId);
+        assertEquals(2, values.size());
+        assertEquals("3 null ADSERVER$", values.get(0));
+        assertEquals(values.get(0), values.get(1));
+    }
+
+    @Test
+    public void lookup() {
+        EventDecoder any = EventDecoder.of(new String[0], (system, data) -> system);
+        EventDecoder v1 = EventDecoder.of(new String[0], (system, data) -> system);
+        EventDecoderRegistry registry = new EventDecoderRegistry();
+        registry.register(null, 100, -1, any);
+        registry.register("Provider", 100, 1, v1);
+
+        assertSame(v1, registry.lookup("Provider", 100, 1).decoder);
+        assertSame(any, registry.lookup("Provider", 100, 2).decoder);
+        assertSame(any, registry.lookup("Other", 100, 1).decoder);
+        assertNull(registry.lookup("Provider", 101, 1));
+
+        EventDecoder replaced = EventDecoder.of(new String[0], (system, data) -> system);
+        registry.register(null, 100, -1, replaced);
+        assertSame(replaced, registry.lookup("Other", 100, 1).decoder);
+    }
+}
@@ -0,0 +1,193 @@
+/**
+ * Copyright 2020 Jitendra Kotamraju.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcifs.dcerpc.msrpc.eventing;
+
+import jcifs.dcerpc.DcerpcMessage;
+import jcifs.dcerpc.msrpc.eventing.even6.EvtRpcRegisterLogQuery;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/*
+ * @author Jitendra Kotamraju
+ */
+public class EventLogBackfillTest {
+
+    @Test
+    public void ordered() throws Exception {
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger maxActive = new AtomicInteger();
+        List<Long> recordIds = new ArrayList<>();
+        EventLogBackfill backfill = EventLogBackfill.ofRecordIds("Security", 1, 1001);
+        backfill.setShards(4);
+        backfill.setMaxConnections(2);
+        backfill.setBatchSize(100);
+        backfill.run(() -> new RangeSession(active, maxActive, null),
+                events -> events.forEach(record -> recordIds.add(record.recordId)));
+
+        assertEquals(LongStream.range(1, 1001).boxed().collect(Collectors.toList()), recordIds);
+        assertEquals(1001, backfill.watermark());
+        assertTrue(maxActive.get() <= 2);
+        assertEquals(0, active.get());
+    }
+
+    @Test
+    public void watermark() throws Exception {
+        AtomicInteger active = new AtomicInteger();
+        Set<Long> recordIds = new ConcurrentSkipListSet<>();
+        EventLogBackfill backfill = EventLogBackfill.ofRecordIds("Security", 1, 1001);
+        backfill.setShards(5);
+        backfill.setMaxConnections(3);
+        backfill.setBatchSize(50);
+        backfill.setOrdered(false);
+        backfill.run(() -> new RangeSession(active, new AtomicInteger(), null), events -> {
+            events.forEach(record -> recordIds.add(record.recordId));
+            for (long id = 1; id < backfill.watermark(); id++) {
+                assertTrue(recordIds.contains(id));
+            }
+        });
+
+        assertEquals(1000, recordIds.size());
+        assertEquals(1001, backfill.watermark());
+    }
+
+    @Test
+    public void resume() throws Exception {
+        Path file = Files.createTempFile("backfill", ".txt");
+        try (FileCheckpointStore store = new FileCheckpointStore(file, 0, TimeUnit.SECONDS)) {
+            EventLogBackfill backfill = EventLogBackfill.ofRecordIds("Security", 1, 1001);
+            backfill.setShards(4);
+            backfill.setBatchSize(100);
+            backfill.setCheckpointStore(store);
+            try {
+                backfill.run(() -> new RangeSession(new AtomicInteger(), new AtomicInteger(), null), events -> {
+                    if (events.get(0).recordId == 601) {
+                        throw new IllegalStateException("interrupted at 601");
+                    }
+                });
+                fail();
+            } catch (IllegalStateException e) {
+                // shards [1, 251) and [251, 501) and the batch [501, 601) are delivered
+            }
+
+            List<String> queries = new CopyOnWriteArrayList<>();
+            List<Long> recordIds = new ArrayList<>();
+            backfill.run(() -> new RangeSession(new AtomicInteger(), new AtomicInteger(), queries),
+                    events -> events.forEach(record -> recordIds.add(record.recordId)));
+
+            assertEquals(LongStream.range(601, 1001).boxed().collect(Collectors.toList()), recordIds);
+            assertEquals(2, queries.size());
+            assertTrue(queries.contains("*[System[EventRecordID>=501 and EventRecordID<751 and EventRecordID>600]]"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void sessionFailure() throws Exception {
+        AtomicInteger sessions = new AtomicInteger();
+        List<Long> recordIds = new ArrayList<>();
+        EventLogBackfill backfill = EventLogBackfill.ofRecordIds("Security", 1, 1001);
+        backfill.setShards(4);
+        backfill.setBatchSize(100);
+        try {
+            backfill.run(() -> {
+                if (sessions.incrementAndGet() == 2) {
+                    throw new IllegalStateException("No route to host");
+                }
+                return new RangeSession(new AtomicInteger(), new AtomicInteger(), null);
+            }, events -> events.forEach(record -> recordIds.add(record.recordId)));
+            fail();
+        } catch (IllegalStateException e) {
+            // the shard without a session ends the ordered delivery, instead of blocking it
+        }
+        assertEquals(LongStream.range(1, recordIds.size() + 1).boxed().collect(Collectors.toList()), recordIds);
+        assertTrue(recordIds.size() < 1000);
+    }
+
+    @Test
+    public void timeShards() throws Exception {
+        List<String> queries = new CopyOnWriteArrayList<>();
+        EventLogBackfill backfill = EventLogBackfill.ofTimeCreated("Security",
+                Instant.parse("2020-07-23T00:00:00Z"), Instant.parse("2020-07-24T00:00:00Z"));
+        backfill.setShards(2);
+        backfill.setFilter("EventID=4624");
+        backfill.run(() -> new RangeSession(new AtomicInteger(), new AtomicInteger(), queries), events -> {});
+
+        assertTrue(queries.contains("*[System[(EventID=4624) and TimeCreated[@SystemTime>='2020-07-23T00:00:00Z'"
+                + " and @SystemTime<'2020-07-23T12:00:00Z']]]"));
+        assertTrue(queries.contains("*[System[(EventID=4624) and TimeCreated[@SystemTime>='2020-07-23T12:00:00Z'"
+                + " and @SystemTime<'2020-07-24T00:00:00Z']]]"));
+        assertEquals(Instant.parse("2020-07-24T00:00:00Z").getEpochSecond() * 1_000_000_000L, backfill.watermark());
+    }
+
+    // Answers a shard's query with the records of its EventRecordID range
+    private static class RangeSession extends FakeEventLogSession {
+        private static final Pattern RANGE = Pattern.compile("EventRecordID>=(\\d+) and EventRecordID<(\\d+)");
+        private static final Pattern AFTER = Pattern.compile("and EventRecordID>(\\d+)]");
+        private final AtomicInteger active;
+        private final AtomicInteger maxActive;
+        private final List<String> queries;
+
+        RangeSession(AtomicInteger active, AtomicInteger maxActive, List<String> queries) {
+            this.active = active;
+            this.maxActive = maxActive;
+            this.queries = queries;
+        }
+
+        @Override
+        void sendPull(DcerpcMessage msg, int timeout) throws IOException {
+            if (msg instanceof EvtRpcRegisterLogQuery) {
+                String query = ((EvtRpcRegisterLogQuery) msg).query;
+                if (queries != null) {
+                    queries.add(query);
+                }
+                maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+                Matcher range = RANGE.matcher(query);
+                if (range.find()) {
+                    Matcher after = AFTER.matcher(query);
+                    int from = after.find() ? Integer.parseInt(after.group(1)) + 1 : Integer.parseInt(range.group(1));
+                    publish("event-28492.bin", from, Integer.parseInt(range.group(2)) - from);
+                }
+            }
+            super.sendPull(msg, timeout);
+        }
+
+        @Override
+        public synchronized void close() {
+            active.decrementAndGet();
+            super.close();
+        }
+    }
+}
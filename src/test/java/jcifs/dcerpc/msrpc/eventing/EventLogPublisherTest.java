@@ -0,0 +1,160 @@
+/**
+ * Copyright 2020 Jitendra Kotamraju.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcifs.dcerpc.msrpc.eventing;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * @author Jitendra Kotamraju
+ */
+public class EventLogPublisherTest {
+
+    @Test
+    public void demand() throws Exception {
+        FakeEventLogSession session = new FakeEventLogSession();
+        session.publish("event-28492.bin", 1, 50);
+        EventLogQuery query = new EventLogQuery("Security", EventLogQuery.PathType.LogName, "*", session, false);
+
+        TestSubscriber subscriber = new TestSubscriber(3);
+        EventLogPublisher publisher = new EventLogPublisher(query);
+        publisher.subscribe(subscriber);
+
+        // the records that are not requested stay on the server
+        assertTrue(subscriber.received(3));
+        Thread.sleep(200);
+        assertEquals(3, subscriber.recordIds.size());
+        assertEquals(47, session.pending());
+        for (int requested : session.requestedRecords) {
+            assertTrue("requested=" + requested, requested <= 3);
+        }
+
+        subscriber.subscription.request(20);
+        assertTrue(subscriber.received(23));
+        Thread.sleep(200);
+        assertEquals(23, subscriber.recordIds.size());
+        assertEquals(27, session.pending());
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertTrue(subscriber.received(50));
+        for (int i = 0; i < 50; i++) {
+            assertEquals(i + 1, (long) subscriber.recordIds.get(i));
+        }
+
+        publisher.close();
+        assertTrue(subscriber.completed.await(5, TimeUnit.SECONDS));
+        assertEquals(null, subscriber.error.get());
+    }
+
+    @Test
+    public void cancel() throws Exception {
+        FakeEventLogSession session = new FakeEventLogSession();
+        session.publish("event-28492.bin", 1, 10);
+        EventLogQuery query = new EventLogQuery("Security", EventLogQuery.PathType.LogName, "*", session, false);
+
+        TestSubscriber subscriber = new TestSubscriber(4);
+        new EventLogPublisher(query).subscribe(subscriber);
+        assertTrue(subscriber.received(4));
+        subscriber.subscription.cancel();
+
+        // no more pulls after the cancel, even with demand
+        int pulls = session.pulls.get();
+        subscriber.subscription.request(10);
+        session.publish("event-28492.bin", 11, 5);
+        Thread.sleep(200);
+        assertEquals(pulls, session.pulls.get());
+        assertEquals(4, subscriber.recordIds.size());
+        assertEquals(1, session.closes.get());
+    }
+
+    @Test
+    public void error() throws Exception {
+        FakeEventLogSession session = new FakeEventLogSession();
+        session.publish("event-28492.bin", 1, 10);
+        session.failures.set(1);
+        EventLogQuery query = new EventLogQuery("Security", EventLogQuery.PathType.LogName, "*", session, false);
+
+        TestSubscriber subscriber = new TestSubscriber(10);
+        new EventLogPublisher(query).subscribe(subscriber);
+        assertTrue(subscriber.failed.await(5, TimeUnit.SECONDS));
+        assertTrue(subscriber.error.get() instanceof EventLogException);
+        assertEquals(0, subscriber.recordIds.size());
+    }
+
+    @Test
+    public void invalidRequest() throws Exception {
+        FakeEventLogSession session = new FakeEventLogSession();
+        EventLogQuery query = new EventLogQuery("Security", EventLogQuery.PathType.LogName, "*", session, false);
+
+        TestSubscriber subscriber = new TestSubscriber(0);
+        new EventLogPublisher(query).subscribe(subscriber);
+        assertTrue(subscriber.failed.await(5, TimeUnit.SECONDS));
+        assertTrue(subscriber.error.get() instanceof IllegalArgumentException);
+        assertEquals(1, session.closes.get());
+    }
+
+    private static class TestSubscriber implements EventLogPublisher.Subscriber {
+        final long initialRequest;
+        final List<Long> recordIds = Collections.synchronizedList(new ArrayList<>());
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        final CountDownLatch failed = new CountDownLatch(1);
+        final CountDownLatch completed = new CountDownLatch(1);
+        volatile EventLogPublisher.Subscription subscription;
+
+        TestSubscriber(long initialRequest) {
+            this.initialRequest = initialRequest;
+        }
+
+        boolean received(int count) throws InterruptedException {
+            long end = System.currentTimeMillis() + 5000;
+            while (recordIds.size() < count && System.currentTimeMillis() < end) {
+                Thread.sleep(10);
+            }
+            return recordIds.size() >= count;
+        }
+
+        @Override
+        public void onSubscribe(EventLogPublisher.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(initialRequest);
+        }
+
+        @Override
+        public void onNext(EventRecord record) {
+            recordIds.add(record.recordId);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error.set(throwable);
+            failed.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            completed.countDown();
+        }
+    }
+}
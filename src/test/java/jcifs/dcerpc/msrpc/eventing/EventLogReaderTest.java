@@ -0,0 +1,69 @@
+/**
+ * Copyright 2020 Jitendra Kotamraju.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcifs.dcerpc.msrpc.eventing;
+
+import jcifs.dcerpc.msrpc.eventing.even6.EvtRpcRegisterLogQuery;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/*
+ * @author Jitendra Kotamraju
+ */
+public class EventLogReaderTest {
+
+    @Test
+    public void readahead() throws Exception {
+        FakeEventLogSession session = new FakeEventLogSession();
+        session.publish("event-28492.bin", 1, 500);
+        EventLogQuery query = new EventLogQuery("Security", EventLogQuery.PathType.LogName, "*", session, false);
+        List<Long> recordIds;
+        try (EventLogReader reader = new EventLogReader(query)) {
+            reader.setBatchSize(200);
+            recordIds = reader.stream().map(record -> record.recordId).collect(Collectors.toList());
+            assertNull(reader.readEvent());
+        }
+
+        assertEquals(LongStream.rangeClosed(1, 500).boxed().collect(Collectors.toList()), recordIds);
+        assertEquals(4, session.queryNexts.get());          // 200, 200, 100 and the empty end
+        EvtRpcRegisterLogQuery logQuery = session.logQueries.get(0);
+        assertEquals(even6.EvtQueryChannelPath | even6.EvtReadOldestToNewest, logQuery.flags);
+        assertEquals(1, session.closes.get());
+    }
+
+    @Test
+    public void filePathReverse() throws Exception {
+        FakeEventLogSession session = new FakeEventLogSession();
+        session.publish("event-28492.bin", 1, 10);
+        EventLogQuery query = new EventLogQuery("C:\\logs\\Security.evtx", EventLogQuery.PathType.FilePath, "*",
+                session, true);
+        try (EventLogReader reader = new EventLogReader(query)) {
+            reader.setReadahead(false);
+            assertEquals(10, reader.readBatch().size());
+            assertEquals(0, reader.readBatch().size());
+        }
+
+        EvtRpcRegisterLogQuery logQuery = session.logQueries.get(0);
+        assertEquals("C:\\logs\\Security.evtx", logQuery.channelPath);
+        assertEquals(even6.EvtQueryFilePath | even6.EvtReadNewestToOldest, logQuery.flags);
+        assertEquals(2, session.queryNexts.get());
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright 2020 Jitendra Kotamraju.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcifs.dcerpc.msrpc.eventing;
+
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * @author Jitendra Kotamraju
+ */
+public class EventLogWatcherManagerTest {
+
+    @Test
+    public void manyHosts() throws Exception {
+        EventLogWatcherManager manager = new EventLogWatcherManager(2, 1, 10, TimeUnit.MILLISECONDS);
+        CountDownLatch delivered = new CountDownLatch(6 * 10);
+        Map<String, AtomicInteger> concurrent = new ConcurrentHashMap<>();
+        AtomicInteger maxConcurrent = new AtomicInteger();
+        FakeEventLogSession[] sessions = new FakeEventLogSession[6];
+        for (int i = 0; i < sessions.length; i++) {
+            String host = "host" + (i % 3);
+            sessions[i] = new FakeEventLogSession(host);
+            EventLogQuery query = new EventLogQuery("Security", EventLogQuery.PathType.LogName, "*", sessions[i], false);
+            EventLogWatcher watcher = new EventLogWatcher(query, events -> {
+                AtomicInteger running = concurrent.computeIfAbsent(host, h -> new AtomicInteger());
+                maxConcurrent.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+                for (EventRecord record : events) {
+                    delivered.countDown();
+                }
+            });
+            watcher.setRequestedRecords(3);
+            manager.add(watcher);
+        }
+        manager.start();
+        for (FakeEventLogSession session : sessions) {
+            session.publish("event-28492.bin", 1, 10);
+        }
+
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        assertEquals(1, maxConcurrent.get());
+        for (FakeEventLogSession session : sessions) {
+            assertEquals(0, session.waits.get());           // no thread blocks on a wait
+            for (int timeout : session.pullTimeouts) {
+                assertEquals(0, timeout);                   // nor on a pull at the server
+            }
+        }
+
+        Map<String, EventLogWatcherManager.HostStatus> status = manager.status();
+        assertEquals(3, status.size());
+        for (EventLogWatcherManager.HostStatus host : status.values()) {
+            assertEquals(2, host.watchers);
+            assertEquals(0, host.failed);
+            assertTrue(host.lastPullTime > 0);
+        }
+        manager.close();
+    }
+}
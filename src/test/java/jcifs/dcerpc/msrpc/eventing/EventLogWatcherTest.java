@@ -16,6 +16,8 @@
 package jcifs.dcerpc.msrpc.eventing;
 
 import jcifs.dcerpc.msrpc.eventing.EventLogQuery.PathType;
+import jcifs.dcerpc.msrpc.eventing.even6.EvtRpcRegisterRemoteSubscription;
+import org.junit.Test;
 
 import java.io.*;
 import java.net.URL;
@@ -24,9 +26,24 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 /*
  * @author Jitendra Kotamraju
@@ -93,4 +110,477 @@ public class EventLogWatcherTest {
         System.out.println(progress);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void pipelined() throws Exception {
+        FakeEventLogSession session = new FakeEventLogSession();
+        session.publish("event-28492.bin", 1, 20);
+        EventLogQuery query = new EventLogQuery("Security", EventLogQuery.PathType.LogName, "*", session, false);
+
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch delivered = new CountDownLatch(20);
+        List<Long> recordIds = Collections.synchronizedList(new ArrayList<>());
+        AtomicReference<EventLogProgress> progress = new AtomicReference<>();
+        EventLogWatcher watcher = new EventLogWatcher(query, events -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            for (EventRecord record : events) {
+                recordIds.add(record.recordId);
+                delivered.countDown();
+            }
+        }, progress::set);
+        watcher.setRequestedRecords(5);
+        watcher.setPipelineDepth(1);
+        watcher.start();
+
+        // first batch is with the callback, the second one is queued and the third one waits for room
+        long deadline = System.currentTimeMillis() + 5000;
+        while (session.pulls.get() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(100);
+        assertEquals(3, session.pulls.get());
+        assertEquals(5, session.pending());
+        assertEquals(0, progress.get().lastEventRecordId);       // nothing is acknowledged yet
+
+        release.countDown();
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        // the progress is updated after the callback returns for the last batch
+        deadline = System.currentTimeMillis() + 5000;
+        while (progress.get().lastEventRecordId < 20 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        watcher.close();
+
+        List<Long> expected = new ArrayList<>();
+        for (long i = 1; i <= 20; i++) {
+            expected.add(i);
+        }
+        assertEquals(expected, recordIds);
+        assertEquals(20, progress.get().lastEventRecordId);
+    }
+
+    @Test
+    public void parallelDecode() throws Exception {
+        FakeEventLogSession session = new FakeEventLogSession();
+        session.publish("event-28492.bin", 1, 150);
+        session.publish("event-28493.bin", 151, 150);
+        EventLogQuery query = new EventLogQuery("Security", EventLogQuery.PathType.LogName, "*", session, false);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        CountDownLatch delivered = new CountDownLatch(300);
+        List<EventRecord> records = Collections.synchronizedList(new ArrayList<>());
+        EventLogWatcher watcher = new EventLogWatcher(query, events -> {
+            for (EventRecord record : events) {
+                assertTrue(record.decodedEvent() != null);
+                records.add(record);
+                delivered.countDown();
+            }
+        });
+        watcher.setRequestedRecords(256);
+        watcher.setDecodeExecutor(executor);
+        watcher.start();
+
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        watcher.close();
+        executor.shutdown();
+
+        for (int i = 0; i < 300; i++) {
+            EventRecord record = records.get(i);
+            assertEquals(i + 1, record.recordId);
+            assertEquals(i < 150 ? 4624 : 4634, record.decodedEvent().eventId);
+        }
+    }
+
+    @Test
+    public void threadFactory() throws Exception {
+        FakeEventLogSession session = new FakeEventLogSession();
+        session.publish("event-28492.bin", 1, 10);
+        EventLogQuery query = new EventLogQuery("Security", EventLogQuery.PathType.LogName, "*", session, false);
+
+        List<Thread> threads = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch delivered = new CountDownLatch(10);
+        List<String> callbackThreads = Collections.synchronizedList(new ArrayList<>());
+        EventLogWatcher watcher = new EventLogWatcher(query, events -> {
+            callbackThreads.add(Thread.currentThread().getName());
+            events.forEach(record -> delivered.countDown());
+        });
+        watcher.setPipelineDepth(1);
+        watcher.setThreadFactory(r -> {
+            Thread thread = new Thread(r);
+            thread.setDaemon(true);
+            threads.add(thread);
+            return thread;
+        });
+        watcher.start();
+
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        watcher.close();
+
+        assertEquals(2, threads.size());
+        assertTrue(threads.get(0).getName().endsWith("-dispatch"));
+        assertTrue(callbackThreads.stream().allMatch(name -> name.equals(threads.get(0).getName())));
+    }
+
+    @Test
+    public void fallbackPull() throws Exception {
+        FakeEventLogSession session = new FakeEventLogSession();
+        session.stuckWaits = true;
+        EventLogQuery query = new EventLogQuery("Security", EventLogQuery.PathType.LogName, "*", session, false);
+
+        CountDownLatch delivered = new CountDownLatch(10);
+        List<Long> recordIds = Collections.synchronizedList(new ArrayList<>());
+        EventLogWatcher watcher = new EventLogWatcher(query, events -> {
+            for (EventRecord record : events) {
+                recordIds.add(record.recordId);
+                delivered.countDown();
+            }
+        });
+        watcher.setFallbackPullInterval(50, TimeUnit.MILLISECONDS);
+        watcher.start();
+        session.publish("event-28492.bin", 1, 10);
+
+        // the wait never returns, the events are pulled by the timer
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        watcher.close();
+
+        assertEquals(1, session.waits.get());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i + 1, (long) recordIds.get(i));
+        }
+        for (int timeout : session.pullTimeouts) {
+            assertEquals(0, timeout);
+        }
+    }
+
+    @Test
+    public void fallbackPullFailure() throws Exception {
+        FakeEventLogSession session = new FakeEventLogSession();
+        session.stuckWaits = true;
+        session.pullRetVal = 5;                 // ERROR_ACCESS_DENIED, the connections stay open
+        EventLogQuery query = new EventLogQuery("Security", EventLogQuery.PathType.LogName, "*", session, false);
+
+        CountDownLatch delivered = new CountDownLatch(10);
+        List<EventRecord> records = Collections.synchronizedList(new ArrayList<>());
+        AtomicReference<EventLogProgress> progress = new AtomicReference<>();
+        EventLogWatcher watcher = new EventLogWatcher(query, events -> {
+            records.addAll(events);
+            events.forEach(record -> delivered.countDown());
+        }, progress::set);
+        watcher.setFallbackPullInterval(50, TimeUnit.MILLISECONDS);
+        watcher.setReconnectBackoff(10, 100, TimeUnit.MILLISECONDS);
+        watcher.start();
+        session.publish("event-28492.bin", 1, 10);
+
+        // the failed periodic pull cancels the stuck wait, and the watcher subscribes again
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        watcher.close();
+
+        assertEquals(2, session.subscriptions.size());
+        assertEquals(1, progress.get().reconnects);
+        for (int i = 0; i < 10; i++) {
+            assertNull(records.get(i).exception);
+            assertEquals(i + 1, records.get(i).recordId);
+        }
+    }
+
+    @Test
+    public void fallbackPullFailureWithoutBackoff() throws Exception {
+        FakeEventLogSession session = new FakeEventLogSession();
+        session.stuckWaits = true;
+        session.pullRetVal = 5;                 // ERROR_ACCESS_DENIED, the connections stay open
+        EventLogQuery query = new EventLogQuery("Security", EventLogQuery.PathType.LogName, "*", session, false);
+
+        List<EventRecord> records = Collections.synchronizedList(new ArrayList<>());
+        List<String> callbackThreads = Collections.synchronizedList(new ArrayList<>());
+        EventLogWatcher watcher = new EventLogWatcher(query, events -> {
+            callbackThreads.add(Thread.currentThread().getName());
+            records.addAll(events);
+        });
+        watcher.setFallbackPullInterval(50, TimeUnit.MILLISECONDS);
+        watcher.start();
+        session.publish("event-28492.bin", 1, 10);
+
+        // the failed periodic pull cancels the stuck wait, and the watcher thread fails the watcher
+        long deadline = System.currentTimeMillis() + 5000;
+        while (records.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(200);                      // no more events or errors after the failure
+        watcher.close();
+
+        assertEquals(1, records.size());
+        assertNotNull(records.get(0).exception);
+        assertTrue(callbackThreads.get(0).matches("EventLogWatcher-\\d+"));
+        assertEquals(1, session.subscriptions.size());
+    }
+
+    @Test
+    public void pushMode() throws Exception {
+        FakeEventLogSession session = new FakeEventLogSession();
+        EventLogQuery query = new EventLogQuery("Security", EventLogQuery.PathType.LogName, "*", session, false);
+
+        CountDownLatch delivered = new CountDownLatch(30);
+        List<Long> recordIds = Collections.synchronizedList(new ArrayList<>());
+        EventLogWatcher watcher = new EventLogWatcher(query, events -> {
+            for (EventRecord record : events) {
+                recordIds.add(record.recordId);
+                delivered.countDown();
+            }
+        });
+        watcher.setRequestedRecords(10);
+        watcher.setPushMode(true);
+        watcher.start();
+        session.publish("event-28492.bin", 1, 30);
+
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        watcher.close();
+
+        // a round trip per batch, no waits and pulls
+        assertEquals(0, session.waits.get());
+        assertEquals(0, session.pulls.get());
+        assertTrue(session.nextAsyncs.get() >= 3);
+        for (int i = 0; i < 30; i++) {
+            assertEquals(i + 1, (long) recordIds.get(i));
+        }
+    }
+
+    @Test
+    public void sharedSession() throws Exception {
+        FakeEventLogSession session = new FakeEventLogSession();
+        EventLogQuery security = new EventLogQuery("Security", EventLogQuery.PathType.LogName, "*", session, false);
+        EventLogQuery system = new EventLogQuery("System", EventLogQuery.PathType.LogName, "*", session, false);
+
+        CountDownLatch first = new CountDownLatch(20);
+        CountDownLatch second = new CountDownLatch(10);
+        List<Long> systemIds = Collections.synchronizedList(new ArrayList<>());
+        EventLogWatcher securityWatcher = new EventLogWatcher(security,
+                events -> events.forEach(record -> first.countDown()));
+        EventLogWatcher systemWatcher = new EventLogWatcher(system, events -> {
+            for (EventRecord record : events) {
+                systemIds.add(record.recordId);
+                (record.recordId > 20 ? second : first).countDown();
+            }
+        });
+        List<Thread> securityThreads = new CopyOnWriteArrayList<>();
+        securityWatcher.setThreadFactory(r -> {
+            Thread thread = new Thread(r);
+            thread.setDaemon(true);
+            securityThreads.add(thread);
+            return thread;
+        });
+        securityWatcher.start();
+        systemWatcher.start();
+
+        session.publish("event-28492.bin", 1, 20);
+        assertTrue(first.await(5, TimeUnit.SECONDS));
+
+        // closing a watcher leaves the session to the other one
+        securityWatcher.close();
+        assertEquals(0, session.closes.get());
+        // till the closed watcher isn't in a pull, that would take the new records
+        Thread securityThread = securityThreads.get(0);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (securityThread.getState() != Thread.State.WAITING && securityThread.isAlive()
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        session.publish("event-28492.bin", 21, 10);
+        assertTrue(second.await(5, TimeUnit.SECONDS));
+
+        systemWatcher.close();
+        assertEquals(1, session.closes.get());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(21 + i, (long) systemIds.get(systemIds.size() - 10 + i));
+        }
+    }
+
+    @Test
+    public void idleSharedSession() throws Exception {
+        FakeEventLogSession session = new FakeEventLogSession();
+        session.silentWaits = true;
+        EventLogQuery security = new EventLogQuery("Security", EventLogQuery.PathType.LogName, "*", session, false);
+        EventLogQuery system = new EventLogQuery("System", EventLogQuery.PathType.LogName, "*", session, false);
+
+        List<EventRecord> records = Collections.synchronizedList(new ArrayList<>());
+        EventLogWatcher securityWatcher = new EventLogWatcher(security, records::addAll);
+        EventLogWatcher systemWatcher = new EventLogWatcher(system, records::addAll);
+        securityWatcher.setWaitTimeout(10);
+        systemWatcher.setWaitTimeout(10);
+        securityWatcher.start();
+        systemWatcher.start();
+
+        // the waits recycle the shared wait connection in turns, that doesn't fail the other's wait
+        long deadline = System.currentTimeMillis() + 5000;
+        while (session.waitConnections.get() < 6 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        securityWatcher.close();
+        systemWatcher.close();
+
+        assertTrue(session.waitConnections.get() >= 6);
+        assertTrue(records.isEmpty());
+        assertEquals(2, session.waits.get());
+    }
+
+    @Test
+    public void checkpoint() throws Exception {
+        Path file = Files.createTempFile("checkpoints", ".txt");
+        try (FileCheckpointStore store = new FileCheckpointStore(file, 0, TimeUnit.SECONDS)) {
+            FakeEventLogSession session = new FakeEventLogSession("dc1");
+            session.publish("event-28492.bin", 1, 10);
+            EventLogQuery query = new EventLogQuery("Security", EventLogQuery.PathType.LogName, "*", session, false);
+            CountDownLatch delivered = new CountDownLatch(10);
+            AtomicReference<EventLogProgress> progress = new AtomicReference<>();
+            EventLogWatcher watcher = new EventLogWatcher(query, events -> events.forEach(record -> delivered.countDown()),
+                    progress::set);
+            watcher.setCheckpointStore(store);
+            watcher.start();
+            assertTrue(delivered.await(5, TimeUnit.SECONDS));
+            String bookmark = "<BookmarkList><Bookmark Channel='Security' RecordId='10' IsCurrent='true'/></BookmarkList>";
+            long deadline = System.currentTimeMillis() + 5000;     // saved after the callback returns
+            while (!bookmark.equals(store.load("dc1", "Security")) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            watcher.close();
+
+            assertNull(session.subscriptions.get(0).bookmarkXml);
+            assertEquals(bookmark, progress.get().lastBookmark);
+            assertEquals(bookmark, store.load("dc1", "Security"));
+        }
+
+        // resumes after the stored bookmark
+        try (FileCheckpointStore store = new FileCheckpointStore(file, 0, TimeUnit.SECONDS)) {
+            FakeEventLogSession session = new FakeEventLogSession("dc1");
+            EventLogQuery query = new EventLogQuery("Security", EventLogQuery.PathType.LogName, "*", session, false);
+            EventLogWatcher watcher = new EventLogWatcher(query, events -> {});
+            watcher.setCheckpointStore(store);
+            watcher.start();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (session.subscriptions.isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            watcher.close();
+
+            EvtRpcRegisterRemoteSubscription subscription = session.subscriptions.get(0);
+            assertEquals(store.load("dc1", "Security"), subscription.bookmarkXml);
+            assertEquals(even6.EvtSubscribeStartAfterBookmark, subscription.flags & 0x3);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void checkpointSaveFailure() throws Exception {
+        AtomicInteger failures = new AtomicInteger(1);
+        Map<String, String> saved = new ConcurrentHashMap<>();
+        EventLogCheckpointStore store = new EventLogCheckpointStore() {
+            @Override
+            public String load(String host, String channel) {
+                return saved.get(host + "/" + channel);
+            }
+
+            @Override
+            public void save(String host, String channel, String bookmarkXml) throws IOException {
+                if (failures.getAndDecrement() > 0) {
+                    throw new IOException("No space left on device");
+                }
+                saved.put(host + "/" + channel, bookmarkXml);
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        FakeEventLogSession session = new FakeEventLogSession("dc1");
+        session.publish("event-28492.bin", 1, 5);
+        EventLogQuery query = new EventLogQuery("Security", EventLogQuery.PathType.LogName, "*", session, false);
+        CountDownLatch first = new CountDownLatch(5);
+        CountDownLatch second = new CountDownLatch(10);
+        List<EventRecord> records = Collections.synchronizedList(new ArrayList<>());
+        AtomicReference<EventLogProgress> progress = new AtomicReference<>();
+        EventLogWatcher watcher = new EventLogWatcher(query, events -> {
+            records.addAll(events);
+            events.forEach(record -> {
+                first.countDown();
+                second.countDown();
+            });
+        }, progress::set);
+        watcher.setCheckpointStore(store);
+        watcher.start();
+
+        // the failed save is reported in the progress, and the watcher goes on
+        assertTrue(first.await(5, TimeUnit.SECONDS));
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((progress.get() == null || progress.get().checkpointError == null)
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertNotNull(progress.get().checkpointError);
+        assertNull(saved.get("dc1/Security"));
+
+        // saved with the next batch
+        session.publish("event-28492.bin", 6, 5);
+        assertTrue(second.await(5, TimeUnit.SECONDS));
+        String bookmark = "<BookmarkList><Bookmark Channel='Security' RecordId='10' IsCurrent='true'/></BookmarkList>";
+        deadline = System.currentTimeMillis() + 5000;
+        while (!bookmark.equals(saved.get("dc1/Security")) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        watcher.close();
+
+        assertEquals(bookmark, saved.get("dc1/Security"));
+        assertNull(progress.get().checkpointError);
+        assertEquals(10, records.size());
+        for (EventRecord record : records) {
+            assertNull(record.exception);
+        }
+    }
+
+    @Test
+    public void reconnect() throws Exception {
+        FakeEventLogSession session = new FakeEventLogSession();
+        session.publish("event-28492.bin", 1, 10);
+        EventLogQuery query = new EventLogQuery("Security", EventLogQuery.PathType.LogName, "*", session, false);
+        List<Long> recordIds = new CopyOnWriteArrayList<>();
+        AtomicReference<EventLogProgress> progress = new AtomicReference<>();
+        EventLogWatcher watcher = new EventLogWatcher(query,
+                events -> events.forEach(record -> recordIds.add(record.recordId)), progress::set);
+        watcher.setReconnectBackoff(10, 100, TimeUnit.MILLISECONDS);
+        watcher.setPipelineDepth(2);
+        watcher.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (recordIds.size() < 10 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        // the wait and then the first subscribe attempt fail, the server sends 9 and 10 again
+        session.failures.set(2);
+        session.publish("event-28492.bin", 9, 7);
+        deadline = System.currentTimeMillis() + 5000;
+        while (recordIds.size() < 15 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        watcher.close();
+
+        List<Long> expected = new ArrayList<>();
+        for (long i = 1; i <= 15; i++) {
+            expected.add(i);
+        }
+        assertEquals(expected, recordIds);
+        EvtRpcRegisterRemoteSubscription resumed = session.subscriptions.get(session.subscriptions.size() - 1);
+        assertEquals("<BookmarkList><Bookmark Channel='Security' RecordId='10' IsCurrent='true'/></BookmarkList>",
+                resumed.bookmarkXml);
+        assertEquals(even6.EvtSubscribeStartAfterBookmark, resumed.flags & 0x3);
+        assertEquals(1, progress.get().outages);
+        assertEquals(2, progress.get().reconnects);
+        assertEquals(2, progress.get().skippedDuplicates);
+        assertNull(progress.get().connectionError);
+    }
+}
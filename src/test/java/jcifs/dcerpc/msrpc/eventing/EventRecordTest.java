@@ -0,0 +1,161 @@
+/**
+ * Copyright 2020 Jitendra Kotamraju.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcifs.dcerpc.msrpc.eventing;
+
+import jcifs.util.Encdec;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.time.Instant;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/*
+ * @author Jitendra Kotamraju
+ */
+public class EventRecordTest {
+
+    @Test
+    public void lazyEvent() throws Exception {
+        byte[] buf = record("event-28492.bin", 28492);
+        EventRecord record = new EventRecord(buf, 0, buf.length);
+
+        assertEquals(28492, record.recordId);
+        assertNull(record.decodedEvent());
+        assertArrayEquals(buf, record.bytes());
+
+        Event event = record.event();
+        assertEquals(28492, event.eventRecordId);
+        assertSame(event, record.event());
+    }
+
+    @Test
+    public void system() throws Exception {
+        byte[] buf = record("event-28492.bin", 28492);
+        BinXmlTemplateCache cache = new BinXmlTemplateCache();
+        for (int i = 0; i < 2; i++) {
+            EventRecord record = new EventRecord(buf, 0, buf.length, cache);
+            EventSystem system = record.system();
+
+            assertEquals("Microsoft-Windows-Security-Auditing", system.provider());
+            assertEquals(4624, system.eventId());
+            assertEquals(0, system.level());
+            assertEquals(0x8020000000000000L, system.keywords());
+            Instant timeCreated = Instant.parse("2020-07-23T03:02:30.967149100Z");
+            assertEquals(timeCreated.getEpochSecond() * 1_000_000_000L + timeCreated.getNano(), system.timeCreated());
+            assertNull(record.decodedEvent());
+        }
+        assertEquals(1, cache.hits());
+    }
+
+    @Test
+    public void systemUnexpectedTypes() {
+        EventSystem.Binding binding = new EventSystem.Binding();
+        for (int i = 0; i < EventSystem.FIELDS; i++) {
+            binding.index[i] = i;
+        }
+        EventSystem system = new EventSystem(binding, new byte[16]);
+        system.value(EventSystem.PROVIDER, (byte) 0x08, 0, 4);         // UInt32 instead of a string
+        system.value(EventSystem.EVENT_ID, (byte) 0x01, 0, 8);         // string instead of a number
+        system.value(EventSystem.LEVEL, (byte) 0x03, 0, 1);            // Int8, not decoded yet
+        system.value(EventSystem.KEYWORDS, (byte) 0x0f, 0, 16);        // GUID
+        system.value(EventSystem.TIME_CREATED, (byte) 0x13, 0, 12);    // SID
+
+        assertNull(system.provider());
+        assertEquals(-1, system.eventId());
+        assertEquals(-1, system.level());
+        assertEquals(0, system.keywords());
+        assertEquals(Long.MIN_VALUE, system.timeCreated());
+    }
+
+    @Test
+    public void projection() throws Exception {
+        byte[] buf = record("event-28492.bin", 28492);
+        EventProjection projection = EventProjection.of("TargetUserName", "LogonType", "IpPort");
+        EventRecord record = new EventRecord(buf, 0, buf.length, new BinXmlTemplateCache(), projection);
+
+        LogonEvent event = (LogonEvent) record.event();
+        assertEquals("ADSERVER$", event.targetUserName);
+        assertEquals(3, event.logonType);
+        assertNull(event.subjectUserSid);
+        assertNull(event.logonGuid);
+        assertNull(event.ipAddress);
+        assertEquals(28492, event.eventRecordId);
+
+        StringBuilder xml = new StringBuilder();
+        record.xml(xml);
+        LogonEvent expected = (LogonEvent) Event.event(new StringReader(xml.toString()),
+                EventDecoderRegistry.getDefault(), projection);
+        assertEquals(expected.targetUserName, event.targetUserName);
+        assertEquals(expected.ipPort, event.ipPort);
+        assertNull(expected.subjectUserSid);
+    }
+
+    @Test
+    public void bookmark() throws Exception {
+        byte[] buf = record("event-28492.bin", 28492);
+        EventBookmark bookmark = new EventRecord(buf, 0, buf.length).bookmark();
+
+        assertEquals(28492, bookmark.recordId());
+        assertEquals("<BookmarkList><Bookmark Channel='Security' RecordId='28492' IsCurrent='true'/></BookmarkList>",
+                bookmark.xml("Security"));
+    }
+
+    /*
+     * 2.2.17 Result Set record: header, BinXml of the event, and a bookmark
+     * (2.2.16) that has the record id
+     */
+    static byte[] record(String binXmlResource, long recordId) throws IOException {
+        byte[] binXml = resource(binXmlResource);
+        int bookmarkOffset = 20 + binXml.length;
+        int bookmarkSize = 0x18 + 8;
+        byte[] buf = new byte[bookmarkOffset + bookmarkSize];
+
+        Encdec.enc_uint32le(buf.length, buf, 0);            // TotalSize
+        Encdec.enc_uint32le(20, buf, 4);                    // HeaderSize
+        Encdec.enc_uint32le(20, buf, 8);                    // EventOffset
+        Encdec.enc_uint32le(bookmarkOffset, buf, 12);       // BookmarkOffset
+        Encdec.enc_uint32le(binXml.length, buf, 16);        // BinXmlSize
+        System.arraycopy(binXml, 0, buf, 20, binXml.length);
+
+        Encdec.enc_uint32le(bookmarkSize, buf, bookmarkOffset);             // BookmarkSize
+        Encdec.enc_uint32le(0x18, buf, bookmarkOffset + 4);                 // HeaderSize
+        Encdec.enc_uint32le(1, buf, bookmarkOffset + 8);                    // ChannelSize
+        Encdec.enc_uint32le(0, buf, bookmarkOffset + 12);                   // CurrentChannel
+        Encdec.enc_uint32le(0, buf, bookmarkOffset + 16);                   // ReadDirection
+        Encdec.enc_uint32le(0x18, buf, bookmarkOffset + 20);                // RecordIdsOffset
+        Encdec.enc_uint64le(recordId, buf, bookmarkOffset + 0x18);          // LogRecordNumbers
+        return buf;
+    }
+
+    static byte[] resource(String name) throws IOException {
+        try(InputStream in = EventRecordTest.class.getResourceAsStream(name)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright 2020 Jitendra Kotamraju.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcifs.dcerpc.msrpc.eventing;
+
+import jcifs.dcerpc.msrpc.eventing.even6.EvtRpcRemoteSubscriptionNext;
+import jcifs.dcerpc.ndr.NdrBuffer;
+import jcifs.dcerpc.rpc.policy_handle;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/*
+ * @author Jitendra Kotamraju
+ */
+public class EvtRpcRemoteSubscriptionNextTest {
+
+    @Test
+    public void decodeOut() throws Exception {
+        int[] indices = { 0, 7, 20 };
+        int[] sizes = { 7, 13, 5 };
+        byte[] events = new byte[25];
+        for (int i = 0; i < events.length; i++) {
+            events[i] = (byte) i;
+        }
+
+        // [out] NumActualRecords, EventDataIndices, EventDataSizes, ResultBufferSize, ResultBuffer, return value
+        NdrBuffer buf = new NdrBuffer(new byte[1024], 0);
+        buf.enc_ndr_long(indices.length);
+        encodeLongs(buf, indices);
+        encodeLongs(buf, sizes);
+        buf.enc_ndr_long(events.length);
+        buf.enc_ndr_long(1);
+        buf.enc_ndr_long(events.length);
+        buf.writeOctetArray(events, 0, events.length);
+        buf.enc_ndr_long(0);
+
+        EvtRpcRemoteSubscriptionNext pull = new EvtRpcRemoteSubscriptionNext(new policy_handle(), 5, 1000, 0);
+        pull.decode_out(new NdrBuffer(buf.getBuffer(), 0));
+
+        assertEquals(3, pull.numActualRecords);
+        assertArrayEquals(indices, pull.eventDataIndices);
+        assertArrayEquals(sizes, pull.eventDataSizes);
+        assertEquals(events.length, pull.resultBufferSize);
+        assertArrayEquals(events, pull.resultBuffer);
+        assertEquals(0, pull.retVal);
+    }
+
+    private static void encodeLongs(NdrBuffer buf, int[] values) {
+        buf.enc_ndr_long(1);                // pointer
+        buf.enc_ndr_long(values.length);    // MaxCount
+        for (int value : values) {
+            buf.enc_ndr_long(value);
+        }
+    }
+}
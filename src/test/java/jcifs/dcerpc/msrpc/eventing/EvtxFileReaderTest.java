@@ -0,0 +1,350 @@
+/**
+ * Copyright 2020 Jitendra Kotamraju.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcifs.dcerpc.msrpc.eventing;
+
+import jcifs.util.Encdec;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/*
+ * @author Jitendra Kotamraju
+ */
+public class EvtxFileReaderTest {
+    private static final long TIME_CREATED = Instant.parse("2020-07-23T03:02:30Z").getEpochSecond();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void chunks() throws Exception {
+        // chunks are written newest first, and the last chunk of the file is unused
+        Path path = folder.newFile("Security.evtx").toPath();
+        Files.write(path, file(new Chunk(101, 30), new Chunk(1, 100), null));
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try (EvtxFileReader reader = new EvtxFileReader(path)) {
+            reader.setExecutor(executor, 2);
+            assertEquals(2, reader.chunks());
+
+            List<EventRecord> records = reader.stream().collect(Collectors.toList());
+            assertEquals(130, records.size());
+            for (int i = 0; i < records.size(); i++) {
+                EventRecord record = records.get(i);
+                assertEquals(i + 1, record.recordId);
+                assertEquals(i + 1, record.bookmark().recordId());
+
+                LogoffEvent event = (LogoffEvent) record.decodedEvent();
+                assertEquals(4634, event.eventId);
+                assertEquals(i + 1, event.eventRecordId);
+                assertEquals("user" + (i + 1), event.targetUserName);
+                assertEquals("adserver.example.com", event.computer);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void system() throws Exception {
+        Path path = folder.newFile("Security.evtx").toPath();
+        Files.write(path, file(new Chunk(1, 3)));
+
+        try (EvtxFileReader reader = new EvtxFileReader(path)) {
+            List<EventRecord> records = reader.readChunk(0);
+            assertEquals(3, records.size());
+
+            EventSystem system = records.get(2).system();
+            assertEquals("Microsoft-Windows-Security-Auditing", system.provider());
+            assertEquals(4634, system.eventId());
+            assertEquals((TIME_CREATED + 3) * 1_000_000_000L, system.timeCreated());
+
+            StringBuilder xml = new StringBuilder();
+            records.get(2).xml(xml);
+            assertTrue(xml.toString(), xml.toString().contains("<Data Name=\"TargetUserName\">user3</Data>")
+                    || xml.toString().contains("<Data Name='TargetUserName'>user3</Data>"));
+        }
+    }
+
+    @Test
+    public void undecodableRecord() throws Exception {
+        // the third record has a value type that the parser doesn't support
+        Path path = folder.newFile("Security.evtx").toPath();
+        Files.write(path, file(new Chunk(1, 5, 3)));
+
+        try (EvtxFileReader reader = new EvtxFileReader(path)) {
+            List<EventRecord> records = reader.stream().collect(Collectors.toList());
+            assertEquals(5, records.size());
+            for (EventRecord record : records) {
+                if (record.recordId == 3) {
+                    assertNull(record.decodedEvent());
+                    try {
+                        record.event();
+                        fail("event of an unsupported value type");
+                    } catch (UnsupportedOperationException e) {
+                        // expected
+                    }
+                } else {
+                    assertEquals("user" + record.recordId, ((LogoffEvent) record.event()).targetUserName);
+                }
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void notEvtx() throws Exception {
+        Path path = folder.newFile("Security.evtx").toPath();
+        Files.write(path, new byte[0x2000]);
+        new EvtxFileReader(path).close();
+    }
+
+    // File header followed by the chunks, a null chunk is an unused one
+    private static byte[] file(Chunk... chunks) {
+        byte[] file = new byte[0x1000 + chunks.length * 0x10000];
+        System.arraycopy("ElfFile\0".getBytes(StandardCharsets.US_ASCII), 0, file, 0, 8);
+        for (int i = 0; i < chunks.length; i++) {
+            if (chunks[i] != null) {
+                System.arraycopy(chunks[i].buf, 0, file, 0x1000 + i * 0x10000, 0x10000);
+            }
+        }
+        return file;
+    }
+
+    /*
+     * A chunk of 4634 events. The first record has the template definition and the names
+     * inline, and the other records refer to them by their offsets in the chunk.
+     */
+    private static class Chunk {
+        final byte[] buf = new byte[0x10000];
+        final Map<String, Integer> names = new HashMap<>();
+        final long badRecordId;                 // its TargetUserName is an unsupported Int8 value
+        int templateOffset = -1;
+        int pos = 0x200;
+
+        Chunk(long firstRecordId, int count) {
+            this(firstRecordId, count, -1);
+        }
+
+        Chunk(long firstRecordId, int count, long badRecordId) {
+            this.badRecordId = badRecordId;
+            System.arraycopy("ElfChnk\0".getBytes(StandardCharsets.US_ASCII), 0, buf, 0, 8);
+            Encdec.enc_uint64le(firstRecordId, buf, 0x08);              // FirstEventRecordNumber
+            Encdec.enc_uint64le(firstRecordId + count - 1, buf, 0x10);  // LastEventRecordNumber
+            Encdec.enc_uint64le(firstRecordId, buf, 0x18);              // FirstEventRecordIdentifier
+            Encdec.enc_uint64le(firstRecordId + count - 1, buf, 0x20);  // LastEventRecordIdentifier
+            for (long id = firstRecordId; id < firstRecordId + count; id++) {
+                record(id);
+            }
+            Encdec.enc_uint32le(pos, buf, 0x30);                        // FreeSpaceOffset
+        }
+
+        // Signature Size RecordId TimeWritten BinXml Size
+        void record(long recordId) {
+            int start = pos;
+            u32(0x2a2a);
+            int size = pos;
+            u32(0);
+            u64(recordId);
+            u64(fileTime(TIME_CREATED + recordId));
+
+            fragmentHeader();
+            u8(0x0c);                                       // TemplateInstanceToken
+            u8(0x01);
+            u32(1);                                         // TemplateId
+            if (templateOffset == -1) {
+                templateOffset = pos + 4;
+                u32(templateOffset);
+                templateDef();
+            } else {
+                u32(templateOffset);
+            }
+
+            String computer = "adserver.example.com";
+            String user = "user" + recordId;
+            byte[][] values = {
+                    string("Microsoft-Windows-Security-Auditing"),
+                    { (byte) 0x1a, 0x12 },                  // 4634
+                    new byte[8],
+                    new byte[8],
+                    string(computer),
+                    string(user)
+            };
+            Encdec.enc_uint64le(fileTime(TIME_CREATED + recordId), values[2], 0);
+            Encdec.enc_uint64le(recordId, values[3], 0);
+            byte[] types = { 0x01, 0x06, 0x11, 0x0a, 0x01, (byte) (recordId == badRecordId ? 0x03 : 0x01) };
+
+            u32(values.length);                             // NumValues
+            for (int i = 0; i < values.length; i++) {
+                u16(values[i].length);
+                u8(types[i]);
+                u8(0);
+            }
+            for (byte[] value : values) {
+                bytes(value);
+            }
+
+            u32(pos - start + 4);                           // Size copy
+            Encdec.enc_uint32le(pos - start, buf, size);
+        }
+
+        // NextTemplateOffset GUID DataSize Fragment
+        void templateDef() {
+            u32(0);
+            for (int i = 0; i < 16; i++) {
+                u8(0x40 + i);                               // GUID
+            }
+            int dataSize = pos;
+            u32(0);
+            int data = pos;
+
+            fragmentHeader();
+            startElement("Event", false);
+            u8(0x02);
+                startElement("System", false);
+                u8(0x02);
+                    startElement("Provider", true);
+                    attribute("Name", false);
+                    substitution(0, 0x01);
+                    u8(0x03);
+                    textElement("EventID", 1, 0x06);
+                    startElement("TimeCreated", true);
+                    attribute("SystemTime", false);
+                    substitution(2, 0x11);
+                    u8(0x03);
+                    textElement("EventRecordID", 3, 0x0a);
+                    textElement("Computer", 4, 0x01);
+                u8(0x04);
+                startElement("EventData", false);
+                u8(0x02);
+                    startElement("Data", true);
+                    attribute("Name", false);
+                    valueText("TargetUserName");
+                    u8(0x02);
+                    substitution(5, 0x01);
+                    u8(0x04);
+                u8(0x04);
+            u8(0x04);
+            u8(0x00);                                       // EOFToken
+
+            Encdec.enc_uint32le(pos - data, buf, dataSize);
+        }
+
+        void textElement(String name, int substitutionId, int valueType) {
+            startElement(name, false);
+            u8(0x02);
+            substitution(substitutionId, valueType);
+            u8(0x04);
+        }
+
+        // OpenStartElementToken DependencyId ElementByteLength Name 0*1AttributeListByteLength
+        void startElement(String name, boolean attributes) {
+            u8(attributes ? 0x41 : 0x01);
+            u16(0xffff);
+            u32(0);
+            name(name);
+            if (attributes) {
+                u32(0);
+            }
+        }
+
+        void attribute(String name, boolean more) {
+            u8(more ? 0x46 : 0x06);
+            name(name);
+        }
+
+        void substitution(int substitutionId, int valueType) {
+            u8(0x0d);
+            u16(substitutionId);
+            u8(valueType);
+        }
+
+        void valueText(String text) {
+            u8(0x05);
+            u8(0x01);
+            u16(text.length());
+            bytes(text.getBytes(StandardCharsets.UTF_16LE));
+        }
+
+        // NameOffset, and the name itself the first time: NextOffset NameHash NumChars String %x00 %x00
+        void name(String name) {
+            Integer offset = names.get(name);
+            if (offset != null) {
+                u32(offset);
+                return;
+            }
+            names.put(name, pos + 4);
+            u32(pos + 4);
+            u32(0);
+            u16(0);
+            u16(name.length());
+            bytes(name.getBytes(StandardCharsets.UTF_16LE));
+            u16(0);
+        }
+
+        void fragmentHeader() {
+            bytes(new byte[] { 0x0f, 0x01, 0x01, 0x00 });
+        }
+
+        void u8(int value) {
+            buf[pos++] = (byte) value;
+        }
+
+        void u16(int value) {
+            Encdec.enc_uint16le((short) value, buf, pos);
+            pos += 2;
+        }
+
+        void u32(int value) {
+            Encdec.enc_uint32le(value, buf, pos);
+            pos += 4;
+        }
+
+        void u64(long value) {
+            Encdec.enc_uint64le(value, buf, pos);
+            pos += 8;
+        }
+
+        void bytes(byte[] value) {
+            System.arraycopy(value, 0, buf, pos, value.length);
+            pos += value.length;
+        }
+
+        static byte[] string(String value) {
+            return value.getBytes(StandardCharsets.UTF_16LE);
+        }
+
+        static long fileTime(long epochSecond) {
+            return (epochSecond + 11644473600L) * 10_000_000L;
+        }
+    }
+}
@@ -0,0 +1,281 @@
+/**
+ * Copyright 2020 Jitendra Kotamraju.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcifs.dcerpc.msrpc.eventing;
+
+import jcifs.dcerpc.DcerpcMessage;
+import jcifs.dcerpc.DcerpcTcpHandle;
+import jcifs.dcerpc.msrpc.eventing.even6.EvtRpcCancel;
+import jcifs.dcerpc.msrpc.eventing.even6.EvtRpcClose;
+import jcifs.dcerpc.msrpc.eventing.even6.EvtRpcQueryNext;
+import jcifs.dcerpc.msrpc.eventing.even6.EvtRpcRegisterLogQuery;
+import jcifs.dcerpc.msrpc.eventing.even6.EvtRpcRegisterRemoteSubscription;
+import jcifs.dcerpc.msrpc.eventing.even6.EvtRpcRemoteSubscriptionNext;
+import jcifs.dcerpc.msrpc.eventing.even6.EvtRpcRemoteSubscriptionNextAsync;
+import jcifs.dcerpc.msrpc.eventing.even6.EvtRpcRemoteSubscriptionWaitAsync;
+import jcifs.dcerpc.ndr.NdrBuffer;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntFunction;
+
+/*
+ * EventLogSession that answers MS-EVEN6 requests from a queue of test records,
+ * instead of a server. Responses are NDR encoded and decoded by the messages.
+ *
+ * @author Jitendra Kotamraju
+ */
+class FakeEventLogSession extends EventLogSession {
+    private final Deque<byte[]> records = new ArrayDeque<>();
+    private boolean cancelled;
+    volatile boolean stuckWaits;                // wait requests return only when cancelled
+    volatile int pullRetVal;                    // return value of the next pull, once
+    private boolean waitCancelled;              // a stuck wait returns ERROR_CANCELLED
+    volatile long roundTripNanos;               // simulated network round trip of a request
+    volatile boolean silentWaits;               // wait requests go to EventLogSession, on connections without responses
+    final AtomicInteger pulls = new AtomicInteger();
+    final List<Integer> requestedRecords = new CopyOnWriteArrayList<>();   // of the pulls
+    final List<Integer> pullTimeouts = new CopyOnWriteArrayList<>();       // server side, of the pulls
+    final AtomicInteger waits = new AtomicInteger();
+    final AtomicInteger nextAsyncs = new AtomicInteger();
+    final AtomicInteger closes = new AtomicInteger();
+    final AtomicInteger failures = new AtomicInteger();     // next requests that fail like a reset connection
+    final List<EvtRpcRegisterRemoteSubscription> subscriptions = new CopyOnWriteArrayList<>();
+    final List<EvtRpcRegisterLogQuery> logQueries = new CopyOnWriteArrayList<>();
+    final AtomicInteger queryNexts = new AtomicInteger();
+    final AtomicInteger waitConnections = new AtomicInteger();
+
+    FakeEventLogSession() {
+        this("localhost");
+    }
+
+    FakeEventLogSession(String server) {
+        super(server, "domain", "user", "password");
+    }
+
+    // Queues records with the given ids, waiting wait requests return
+    synchronized void publish(String binXmlResource, int fromRecordId, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            records.add(EventRecordTest.record(binXmlResource, fromRecordId + i));
+        }
+        notifyAll();
+    }
+
+    // Queues the given records
+    synchronized void publish(byte[][] batch) {
+        records.addAll(Arrays.asList(batch));
+        notifyAll();
+    }
+
+    synchronized int pending() {
+        return records.size();
+    }
+
+    @Override
+    void sendPull(DcerpcMessage msg, int timeout) throws IOException {
+        NdrBuffer buf = new NdrBuffer(new byte[1024 * 1024], 0);
+        if (msg instanceof EvtRpcRegisterRemoteSubscription || msg instanceof EvtRpcRegisterLogQuery) {
+            fail();
+            if (msg instanceof EvtRpcRegisterLogQuery) {
+                logQueries.add((EvtRpcRegisterLogQuery) msg);
+            } else {
+                subscriptions.add((EvtRpcRegisterRemoteSubscription) msg);
+            }
+            for (int i = 0; i < 10; i++) {
+                buf.enc_ndr_long(0);            // handle, control
+            }
+            buf.enc_ndr_long(0);                // queryChannelInfoSize
+            buf.enc_ndr_long(0);                // queryChannelInfo
+            buf.enc_ndr_long(0);                // error
+            buf.enc_ndr_long(0);
+            buf.enc_ndr_long(0);
+        } else if (msg instanceof EvtRpcRemoteSubscriptionNext) {
+            pulls.incrementAndGet();
+            requestedRecords.add(((EvtRpcRemoteSubscriptionNext) msg).numRequestedRecords);
+            pullTimeouts.add(((EvtRpcRemoteSubscriptionNext) msg).timeout);
+            fail();
+            roundTrip();
+            int retVal = pullRetVal;
+            if (retVal != 0) {
+                pullRetVal = 0;
+                encodeNext(buf, 0);
+                buf.enc_ndr_long(retVal);
+                msg.decode_out(new NdrBuffer(buf.getBuffer(), 0));
+                return;
+            }
+            encodeNext(buf, ((EvtRpcRemoteSubscriptionNext) msg).numRequestedRecords);
+        } else if (msg instanceof EvtRpcQueryNext) {
+            queryNexts.incrementAndGet();
+            fail();
+            roundTrip();
+            encodeNext(buf, ((EvtRpcQueryNext) msg).numRequestedRecords);
+        } else if (msg instanceof EvtRpcCancel) {
+            synchronized (this) {
+                waitCancelled = stuckWaits;     // the stuck wait returns
+                notifyAll();                    // the watcher is closed, its wait may return
+            }
+        } else if (!(msg instanceof EvtRpcClose)) {
+            throw new IOException("Unexpected " + msg);
+        }
+        buf.enc_ndr_long(0);                    // return value
+        msg.decode_out(new NdrBuffer(buf.getBuffer(), 0));
+    }
+
+    private synchronized void encodeNext(NdrBuffer buf, int requested) {
+        int n = Math.min(requested, records.size());
+        int[] indices = new int[n];
+        int[] sizes = new int[n];
+        byte[][] batch = new byte[n][];
+        int size = 0;
+        for (int i = 0; i < n; i++) {
+            batch[i] = records.poll();
+            indices[i] = size;
+            sizes[i] = batch[i].length;
+            size += sizes[i];
+        }
+
+        buf.enc_ndr_long(n);
+        encodeLongs(buf, indices);
+        encodeLongs(buf, sizes);
+        buf.enc_ndr_long(size);
+        buf.enc_ndr_long(1);
+        buf.enc_ndr_long(size);
+        for (byte[] record : batch) {
+            buf.writeOctetArray(record, 0, record.length);
+        }
+    }
+
+    private static void encodeLongs(NdrBuffer buf, int[] values) {
+        buf.enc_ndr_long(1);                    // pointer
+        buf.enc_ndr_long(values.length);        // MaxCount
+        for (int value : values) {
+            buf.enc_ndr_long(value);
+        }
+    }
+
+    private void fail() throws IOException {
+        if (failures.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+            throw new IOException("Connection reset");
+        }
+    }
+
+    private void roundTrip() {
+        if (roundTripNanos > 0) {
+            LockSupport.parkNanos(roundTripNanos);
+        }
+    }
+
+    // Blocks until there are records or the wait is cancelled
+    @Override
+    void sendWait(EvtRpcRemoteSubscriptionWaitAsync msg, int timeout) throws IOException {
+        waits.incrementAndGet();
+        if (silentWaits) {
+            super.sendWait(msg, timeout);
+            return;
+        }
+        int retVal = 0;
+        synchronized (this) {
+            while ((records.isEmpty() || stuckWaits) && !cancelled && !waitCancelled) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            if (waitCancelled) {
+                waitCancelled = false;
+                retVal = 1223;                  // ERROR_CANCELLED
+            }
+        }
+        fail();
+        roundTrip();
+        NdrBuffer buf = new NdrBuffer(new byte[4], 0);
+        buf.enc_ndr_long(retVal);
+        msg.decode_out(new NdrBuffer(buf.getBuffer(), 0));
+    }
+
+    // Push subscription: blocks until there are records, and returns them
+    @Override
+    void sendNextAsync(EvtRpcRemoteSubscriptionNextAsync msg, int timeout) throws IOException {
+        nextAsyncs.incrementAndGet();
+        NdrBuffer buf = new NdrBuffer(new byte[1024 * 1024], 0);
+        synchronized (this) {
+            while (records.isEmpty() && !cancelled) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            encodeNext(buf, msg.numRequestedRecords);
+        }
+        roundTrip();
+        buf.enc_ndr_long(0);                    // return value
+        msg.decode_out(new NdrBuffer(buf.getBuffer(), 0));
+    }
+
+    @Override
+    DcerpcTcpHandle openWaitConnection() throws IOException {
+        waitConnections.incrementAndGet();
+        return new SilentWaitHandle();
+    }
+
+    @Override
+    public synchronized void close() {
+        closes.incrementAndGet();
+        cancelled = true;
+        notifyAll();
+        super.close();
+    }
+
+    // Wait connection that takes the requests, and never responds
+    private static final class SilentWaitHandle extends DcerpcTcpHandle {
+        private final CountDownLatch closed = new CountDownLatch(1);
+
+        SilentWaitHandle() throws IOException {
+            super("localhost", 0, "even6");
+        }
+
+        @Override
+        public void bind() {
+        }
+
+        @Override
+        protected void doSendFragment(byte[] buf, int off, int length, boolean isDirect) {
+        }
+
+        @Override
+        public DcerpcMessage receive(IntFunction<DcerpcMessage> calls) throws IOException {
+            try {
+                closed.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            throw new IOException("Connection closed");
+        }
+
+        @Override
+        public void close() {
+            closed.countDown();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright 2020 Jitendra Kotamraju.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcifs.dcerpc.msrpc.eventing;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/*
+ * @author Jitendra Kotamraju
+ */
+public class FileCheckpointStoreTest {
+    private Path file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = Files.createTempFile("checkpoints", ".txt");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void groupCommit() throws Exception {
+        try (FileCheckpointStore store = new FileCheckpointStore(file, 1, TimeUnit.HOURS)) {
+            store.save("dc1", "Security", "<BookmarkList>1</BookmarkList>");
+            store.save("dc1", "Security", "<BookmarkList>2</BookmarkList>");
+            store.save("dc1", "System", "<BookmarkList>\r\n\t3\\</BookmarkList>");
+            assertEquals(0, Files.size(file));          // not committed yet
+
+            store.flush();
+            assertEquals(2, Files.readAllLines(file).size());
+        }
+
+        try (FileCheckpointStore store = new FileCheckpointStore(file, 0, TimeUnit.SECONDS)) {
+            assertEquals("<BookmarkList>2</BookmarkList>", store.load("dc1", "Security"));
+            assertEquals("<BookmarkList>\r\n\t3\\</BookmarkList>", store.load("dc1", "System"));
+            assertNull(store.load("dc2", "Security"));
+        }
+    }
+
+    @Test
+    public void tornLine() throws Exception {
+        try (FileCheckpointStore store = new FileCheckpointStore(file, 0, TimeUnit.SECONDS)) {
+            store.save("dc1", "Security", "<BookmarkList>1</BookmarkList>");
+        }
+        Files.write(file, "dc1\tSecurity\t<Bookm".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        try (FileCheckpointStore store = new FileCheckpointStore(file, 0, TimeUnit.SECONDS)) {
+            assertEquals("<BookmarkList>1</BookmarkList>", store.load("dc1", "Security"));
+            store.save("dc1", "System", "<BookmarkList>2</BookmarkList>");
+        }
+        try (FileCheckpointStore store = new FileCheckpointStore(file, 0, TimeUnit.SECONDS)) {
+            assertEquals("<BookmarkList>1</BookmarkList>", store.load("dc1", "Security"));
+            assertEquals("<BookmarkList>2</BookmarkList>", store.load("dc1", "System"));
+        }
+    }
+
+    @Test
+    public void compaction() throws Exception {
+        try (FileCheckpointStore store = new FileCheckpointStore(file, 0, TimeUnit.SECONDS)) {
+            for (int i = 0; i < 2000; i++) {
+                store.save("dc" + (i % 3), "Security", "<BookmarkList>" + i + "</BookmarkList>");
+            }
+            assertEquals(3, store.size());
+        }
+        // compacted once past 1024 lines, then appended
+        long lines = Files.readAllLines(file).size();
+        assertEquals(3 + (2000 - 1025), lines);
+
+        try (FileCheckpointStore store = new FileCheckpointStore(file, 0, TimeUnit.SECONDS)) {
+            assertEquals("<BookmarkList>1999</BookmarkList>", store.load("dc1", "Security"));
+            assertEquals("<BookmarkList>1998</BookmarkList>", store.load("dc0", "Security"));
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/**
+ * Copyright 2020 Jitendra Kotamraju.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcifs.dcerpc.msrpc.eventing;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * @author Jitendra Kotamraju
+ */
+public class ReconnectBackoffTest {
+
+    @Test
+    public void jitteredCeiling() {
+        ReconnectBackoff backoff = new ReconnectBackoff(1000, 30_000);
+        long[] ceilings = { 1000, 2000, 4000, 8000, 16_000, 30_000, 30_000 };
+        for (long ceiling : ceilings) {
+            long delay = backoff.next();
+            assertTrue(delay >= 0 && delay <= ceiling);
+        }
+        assertEquals(7, backoff.attempts());
+
+        backoff.reset();
+        assertTrue(backoff.next() <= 1000);
+    }
+
+    @Test
+    public void spread() {
+        // many watchers failing together don't retry together
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        for (int i = 0; i < 1000; i++) {
+            ReconnectBackoff backoff = new ReconnectBackoff(1000, 30_000);
+            backoff.next();
+            long delay = backoff.next();
+            min = Math.min(min, delay);
+            max = Math.max(max, delay);
+        }
+        assertTrue(max - min > 1500);
+    }
+}
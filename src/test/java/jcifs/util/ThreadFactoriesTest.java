@@ -0,0 +1,61 @@
+/**
+ * Copyright 2020 Jitendra Kotamraju.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jcifs.util;
+
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * @author Jitendra Kotamraju
+ */
+public class ThreadFactoriesTest {
+
+    @Test
+    public void virtualThread() throws Exception {
+        Method isVirtual;
+        try {
+            isVirtual = Thread.class.getMethod("isVirtual");
+        } catch (NoSuchMethodException e) {
+            // no virtual threads before Java 21
+            assertNull(ThreadFactories.newVirtualThread(() -> {}, "test"));
+            return;
+        }
+
+        boolean[] ran = new boolean[1];
+        Thread thread = ThreadFactories.newVirtualThread(() -> ran[0] = true, "test-virtual");
+        assertNotNull(thread);
+        assertTrue((Boolean) isVirtual.invoke(thread));
+        assertEquals("test-virtual", thread.getName());
+        thread.start();
+        thread.join();
+        assertTrue(ran[0]);
+    }
+
+    @Test
+    public void platformThread() {
+        Thread thread = ThreadFactories.newThreadFactory("test", true).newThread(() -> {});
+        assertEquals("test-0", thread.getName());
+        assertTrue(thread.isDaemon() || ThreadFactories.isVirtual());
+        assertFalse(thread.isAlive());
+    }
+}